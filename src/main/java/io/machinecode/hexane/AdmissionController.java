@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether a caller that found no free connection may wait for one or should be turned
+ * away immediately.
+ *
+ * <p>A caller is rejected when too many others are already waiting, or when the time it would have
+ * to wait is estimated to be too long. Each waiter needs one lease to end before it is served and
+ * leases end at a rate of {@code maxPoolSize} per average lease time, so a caller joining {@code n}
+ * waiters can expect to wait {@code (n + 1) * lease / maxPoolSize}. The average lease time is a
+ * moving average weighted towards recent leases.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+final class AdmissionController {
+  /** The newest lease makes up 1/2^SMOOTHING of the average. */
+  static final int SMOOTHING = 3;
+
+  private final int maxWaiters;
+  private final long maxWait;
+  private final int capacity;
+  private final InternalListener listener;
+  private final AtomicInteger waiting = new AtomicInteger();
+  private volatile long lease;
+
+  AdmissionController(final Config config) {
+    this.maxWaiters = config.getMaxWaiters();
+    this.maxWait = config.getMaxEstimatedWait();
+    this.capacity = config.getMaxPoolSize();
+    this.listener = config.getListener();
+  }
+
+  void onConnectionReturned(final long start, final long end) {
+    final long elapsed = Clock.getElapsedTime(start, end);
+    final long lease = this.lease;
+    // Lost updates under contention only make the average a little less smooth
+    this.lease = lease == 0 ? elapsed : lease + ((elapsed - lease) >> SMOOTHING);
+  }
+
+  /**
+   * Register a caller that is about to wait for a connection. Every successful call must be
+   * matched by a call to {@link #leave()} once the caller stops waiting.
+   *
+   * @return {@code false} if the caller has been rejected and must not wait.
+   */
+  boolean enter() {
+    final int waiting = this.waiting.incrementAndGet();
+    final long estimate = estimateWait(waiting);
+    if ((maxWaiters != Config.UNSET && waiting > maxWaiters)
+        || (maxWait != Config.UNSET && estimate > maxWait)) {
+      this.waiting.decrementAndGet();
+      listener.onConnectionRejected(waiting - 1, estimate);
+      return false;
+    }
+    return true;
+  }
+
+  void leave() {
+    waiting.decrementAndGet();
+  }
+
+  int getWaiting() {
+    return waiting.get();
+  }
+
+  /**
+   * @param waiting The number of waiters including the caller.
+   * @return The estimated time in clock units until the last of them is served.
+   */
+  long estimateWait(final int waiting) {
+    return waiting * lease / capacity;
+  }
+}
@@ -16,18 +16,32 @@
  */
 package io.machinecode.hexane;
 
+import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLNonTransientException;
 import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
@@ -36,15 +50,34 @@ abstract class BasePool<C> implements AutoCloseable {
   static final int STATE_OK = 0;
   static final int STATE_CLOSED = 1;
 
-  private final LinkedBlockingDeque<Pooled<C>> free;
+  private final FreeList<C> free;
   private final Set<Pooled<C>> all = Collections.newSetFromMap(new ConcurrentHashMap<>());
   private final AtomicInteger total = new AtomicInteger();
   private final Logger log;
   final Config config;
   final Defaults defaults;
   final Executor executor;
-  final Runnable task = this::refill;
+  final Runnable task = this::maintain;
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private volatile boolean requested;
+  private final ThreadLocal<WeakReference<Pooled<C>>> last;
+  private final DeadlineQueue<C> idleDeadlines;
+  private final DeadlineQueue<C> lifetimeDeadlines;
+  private final SizingController sizing;
+  private final AdmissionController admission;
+  private final PriorityGate gate;
+  private final ConnectionBudget budget;
+  private final PoolHealth health;
+  private final CircuitBreaker breaker;
+  private final LeakDetector leaks;
+  private final ConcurrentLinkedQueue<Waiter<C>> waiters = new ConcurrentLinkedQueue<>();
+  private final long maintenanceInterval;
+  private volatile long lastRefill;
+  private volatile ScheduledFuture<?> housekeeper;
+  private volatile ScheduledFuture<?> keepalive;
+  private volatile ScheduledFuture<?> leakCheck;
   private volatile int state;
+  private volatile boolean draining;
 
   BasePool(final Config config, final Defaults defaults) {
     this(config, defaults, BasePool.class);
@@ -53,9 +86,38 @@ abstract class BasePool<C> implements AutoCloseable {
   BasePool(final Config config, final Defaults defaults, final Class<?> clazz) {
     this.config = config;
     this.defaults = defaults;
-    this.free = new LinkedBlockingDeque<>(config.getMaxPoolSize());
+    this.free = FreeListType.create(config.getFreeListType(), config);
     this.executor = config.getMaintenanceExecutor();
+    // Claiming a specific item from the deque is a linear search under its lock, so only the
+    // lock free lists are worth trying first
+    this.last =
+        config.isThreadAffinity() && this.free instanceof ParkingFreeList
+            ? new ThreadLocal<>()
+            : null;
+    final long idle = config.getIdleTimeout(), lifetime = config.getLifetimeTimeout();
+    this.idleDeadlines = idle == Config.UNSET ? null : new DeadlineQueue<>();
+    this.lifetimeDeadlines = lifetime == Config.UNSET ? null : new DeadlineQueue<>();
+    this.maintenanceInterval =
+        min(min(idle, lifetimeInterval(config)), config.getAdaptiveSizingInterval());
+    this.lastRefill = Clock.getCurrentTime();
+    this.sizing =
+        config.getAdaptiveSizingInterval() == Config.UNSET
+            ? null
+            : new SizingController(config, this.lastRefill);
+    this.admission =
+        config.getMaxWaiters() == Config.UNSET && config.getMaxEstimatedWait() == Config.UNSET
+            ? null
+            : new AdmissionController(config);
+    this.gate = config.getPriorityClasses().isEmpty() ? null : new PriorityGate(config);
+    this.budget = config.getBudget();
+    this.health = new PoolHealth(config.getHealthHalfLife());
+    this.breaker =
+        config.getCircuitBreakerThreshold() == Config.UNSET
+            ? null
+            : new CircuitBreaker(config, this::signal);
     this.log = config.getLoggerFactory().getLogger(clazz);
+    this.leaks =
+        config.getLeakDetectionThreshold() == Config.UNSET ? null : new LeakDetector(config, log);
   }
 
   Config getConfig() {
@@ -63,26 +125,598 @@ abstract class BasePool<C> implements AutoCloseable {
   }
 
   Pooled<C> take() throws SQLException {
+    return take(PriorityGate.DEFAULT);
+  }
+
+  /**
+   * Acquire a connection as a caller from a priority class. Callers from higher classes are handed
+   * connections first and each class is kept within its share of the pool.
+   */
+  Pooled<C> take(final int priority) throws SQLException {
     if (state != STATE_OK) {
       throw new SQLNonTransientException(Msg.POOL_IS_CLOSED);
     }
     final long start = Clock.getCurrentTime();
     final long timeout = config.getConnectionTimeout();
     final TimeUnit timeoutUnit = config.getConnectionTimeoutUnit();
+    if (gate == null) {
+      if (priority != PriorityGate.DEFAULT) {
+        throw new SQLNonTransientException(Msg.UNKNOWN_PRIORITY + priority);
+      }
+      return take(start, timeout, timeoutUnit);
+    }
+    final PriorityGate.Lane lane = lane(priority);
+    final long nanos = timeout == Config.UNSET ? 0 : timeoutUnit.toNanos(timeout);
+    final long deadline = System.nanoTime() + nanos;
+    final CompletableFuture<Void> ticket = gate.enter(lane);
+    if (!ticket.isDone()) {
+      await(lane, ticket, start, nanos);
+    }
+    boolean leased = false;
     try {
-      executor.execute(task);
-      final Pooled<C> val = timeout == Config.UNSET ? free.poll() : free.poll(timeout, timeoutUnit);
+      final Pooled<C> val =
+          take(
+              start,
+              timeout == Config.UNSET ? Config.UNSET : Math.max(0, deadline - System.nanoTime()),
+              TimeUnit.NANOSECONDS);
+      val.setLane(lane);
+      leased = true;
+      return val;
+    } finally {
+      if (!leased) {
+        gate.release(lane);
+      }
+    }
+  }
+
+  private PriorityGate.Lane lane(final int priority) throws SQLException {
+    final PriorityGate.Lane lane = gate.lane(priority);
+    if (lane == null) {
+      throw new SQLNonTransientException(Msg.UNKNOWN_PRIORITY + priority);
+    }
+    return lane;
+  }
+
+  private void await(
+      final PriorityGate.Lane lane,
+      final CompletableFuture<Void> ticket,
+      final long start,
+      final long nanos)
+      throws SQLException {
+    try {
+      ticket.get(nanos, TimeUnit.NANOSECONDS);
+    } catch (final TimeoutException e) {
+      if (gate.cancel(lane, ticket)) {
+        throw timedOut(start);
+      }
+    } catch (final InterruptedException e) {
+      if (!gate.cancel(lane, ticket)) {
+        gate.release(lane);
+      }
+      Thread.currentThread().interrupt();
+      throw new SQLException(e);
+    } catch (final ExecutionException e) {
+      throw new SQLNonTransientException(Msg.POOL_IS_CLOSED);
+    }
+  }
+
+  private Pooled<C> take(final long start, final long timeout, final TimeUnit timeoutUnit)
+      throws SQLException {
+    final long nanos = timeout == Config.UNSET ? 0 : timeoutUnit.toNanos(timeout);
+    final long deadline = System.nanoTime() + nanos;
+    try {
+      for (; ; ) {
+        Pooled<C> val = reclaim();
+        if (val == null) {
+          val = free.poll();
+        }
+        if (val == null) {
+          if (breaker != null && breaker.isOpen()) {
+            throw new HexaneCircuitOpenException(Msg.CIRCUIT_OPEN);
+          }
+          signal();
+          if (admission != null && !admission.enter()) {
+            throw new HexaneRejectedException(Msg.POOL_SATURATED);
+          }
+          try {
+            val =
+                timeout == Config.UNSET
+                    ? free.poll()
+                    : free.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          } finally {
+            if (admission != null) {
+              admission.leave();
+            }
+          }
+        } else if (free.isBelow(config.getRefillThreshold()) || isMaintenanceDue(start)) {
+          signal();
+        }
+        if (val == null) {
+          throw timedOut(start);
+        }
+        if (validate(val)) {
+          acquired(val, start);
+          return val;
+        }
+        // Evicted, try again with whatever time is left
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException(e);
+    }
+  }
+
+  /**
+   * Check a connection that has been idle for longer than the validation idle threshold is still
+   * usable before handing it out, evicting it if it isn't.
+   *
+   * @return {@code true} if the connection can be handed out.
+   */
+  private boolean validate(final Pooled<C> val) {
+    final long threshold = config.getValidationIdleThreshold();
+    if (threshold == Config.UNSET
+        || Clock.getElapsedTime(val.getAccessed(), Clock.getCurrentTime()) < threshold) {
+      return true;
+    }
+    if (isAlive(val)) {
+      return true;
+    }
+    warn(Msg.EXCEPTION_CLOSING_CONNECTION, val.close(true));
+    return false;
+  }
+
+  /** @return {@code true} if the connection answers the validation query or isValid. */
+  private boolean isAlive(final Pooled<C> val) {
+    final long start = Clock.getCurrentTime();
+    if (!onDriver(() -> check(val), false, alive -> {})) {
+      // Counted against the pool's health when it is evicted
+      return false;
+    }
+    health.onValidation(Clock.getElapsedTime(start, Clock.getCurrentTime()));
+    return true;
+  }
+
+  private boolean check(final Pooled<C> val) {
+    final Connection conn = val.getConnection();
+    final String query = config.getValidationQuery();
+    try {
+      if (query == null) {
+        return conn.isValid(config.getValidationTimeout());
+      }
+      try (final Statement statement = conn.createStatement()) {
+        statement.setQueryTimeout(config.getValidationTimeout());
+        statement.execute(query);
+      }
+      return true;
+    } catch (final SQLException e) {
+      return false;
+    }
+  }
+
+  /** Report connections leased for longer than the leak detection threshold. */
+  void checkLeaks() {
+    if (leaks != null && state == STATE_OK) {
+      leaks.check(this.all);
+    }
+  }
+
+  /**
+   * Validate a batch of the connections that have been idle for longer than the keepalive interval,
+   * so idle sessions aren't dropped by anything between the pool and the database and broken ones
+   * are found before a caller is handed them. Each one is leased while it is checked so nobody can
+   * take it.
+   */
+  void keepalive() {
+    final long interval = config.getKeepaliveInterval();
+    int remaining = config.getKeepaliveBatchSize();
+    for (final Pooled<C> val : this.all) {
+      if (state != STATE_OK || remaining <= 0) {
+        return;
+      }
+      final long now = Clock.getCurrentTime();
+      if (Clock.getElapsedTime(val.getAccessed(), now) < interval
+          || Clock.getElapsedTime(val.getValidated(), now) < interval
+          || !free.claim(val)) {
+        continue;
+      }
+      --remaining;
+      if (!isAlive(val)) {
+        warn(Msg.EXCEPTION_CLOSING_CONNECTION, val.close(true));
+        continue;
+      }
+      val.setValidated(Clock.getCurrentTime());
+      if (!this.free.offer(val)) {
+        // Evicted by maintenance while it was being checked
+        warn(Msg.EXCEPTION_CLOSING_CONNECTION, val.destroy());
+        continue;
+      }
+      serve();
+    }
+  }
+
+  private SQLException timedOut(final long start) {
+    if (sizing != null) {
+      sizing.onConnectionTimeout(start, Clock.getCurrentTime());
+    }
+    config.getListener().onConnectionTimeout(start);
+    return new SQLTransientConnectionException(Msg.POOL_TIMEOUT);
+  }
+
+  /**
+   * Acquire a connection without blocking. If none is free the caller joins a FIFO queue and is
+   * handed the next connection that is returned or created, or fails once the connection timeout
+   * passes.
+   */
+  CompletableFuture<Pooled<C>> takeAsync() {
+    return takeAsync(PriorityGate.DEFAULT);
+  }
+
+  /** As {@link #takeAsync()} for a caller from a priority class. */
+  CompletableFuture<Pooled<C>> takeAsync(final int priority) {
+    if (state != STATE_OK) {
+      return failed(new SQLNonTransientException(Msg.POOL_IS_CLOSED));
+    }
+    final long start = Clock.getCurrentTime();
+    final long timeout = config.getConnectionTimeout();
+    final TimeUnit timeoutUnit = config.getConnectionTimeoutUnit();
+    if (gate == null) {
+      if (priority != PriorityGate.DEFAULT) {
+        return failed(new SQLNonTransientException(Msg.UNKNOWN_PRIORITY + priority));
+      }
+      return takeAsync(start, timeout, timeoutUnit);
+    }
+    final PriorityGate.Lane lane = gate.lane(priority);
+    if (lane == null) {
+      return failed(new SQLNonTransientException(Msg.UNKNOWN_PRIORITY + priority));
+    }
+    final long nanos = timeout == Config.UNSET ? 0 : timeoutUnit.toNanos(timeout);
+    final long deadline = System.nanoTime() + nanos;
+    final CompletableFuture<Void> ticket = gate.enter(lane);
+    final boolean admitted = ticket.isDone();
+    if (!admitted) {
+      final Runnable expire =
+          () -> {
+            if (gate.cancel(lane, ticket)) {
+              final SQLException e = timedOut(start);
+              deliver(() -> ticket.completeExceptionally(e));
+            }
+          };
+      if (timeout == Config.UNSET) {
+        expire.run();
+      } else {
+        final ScheduledFuture<?> expiry =
+            config.getHousekeepingExecutor().schedule(expire, nanos, TimeUnit.NANOSECONDS);
+        ticket.whenComplete((v, e) -> expiry.cancel(false));
+      }
+    }
+    final CompletableFuture<Pooled<C>> ret = new CompletableFuture<>();
+    final Runnable take =
+        () -> {
+          if (ret.isDone()) {
+            // Cancelled once it had been let in
+            gate.release(lane);
+            return;
+          }
+          final CompletableFuture<Pooled<C>> lease =
+              takeAsync(
+                  start,
+                  timeout == Config.UNSET
+                      ? Config.UNSET
+                      : Math.max(0, deadline - System.nanoTime()),
+                  TimeUnit.NANOSECONDS);
+          cancelWith(ret, lease);
+          lease.whenComplete(
+              (val, e) -> {
+                if (e != null) {
+                  gate.release(lane);
+                  ret.completeExceptionally(e);
+                  return;
+                }
+                // Set first so closing it below gives the permit back too
+                val.setLane(lane);
+                if (!ret.complete(val)) {
+                  warn(Msg.EXCEPTION_CLOSING_CONNECTION, val.close(false));
+                }
+              });
+        };
+    ticket.whenComplete(
+        (v, e) -> {
+          if (e != null) {
+            ret.completeExceptionally(e);
+          } else if (admitted) {
+            take.run();
+          } else {
+            // Let in by whoever gives up a lease, don't take over their thread
+            deliver(take);
+          }
+        });
+    ret.whenComplete(
+        (v, e) -> {
+          if (ret.isCancelled() && gate.cancel(lane, ticket)) {
+            ticket.cancel(false);
+          }
+        });
+    return ret;
+  }
+
+  /**
+   * As {@link #takeAsync(int)} with the connection wrapped for the caller. Cancelling the returned
+   * future cancels the lease, and a connection that arrives after the caller has given up is
+   * returned to the pool rather than lost.
+   */
+  <T> CompletableFuture<T> takeAsync(final int priority, final Function<Pooled<C>, T> wrap) {
+    final CompletableFuture<Pooled<C>> lease = takeAsync(priority);
+    final CompletableFuture<T> ret = new CompletableFuture<>();
+    cancelWith(ret, lease);
+    lease.whenComplete(
+        (val, e) -> {
+          if (e != null) {
+            ret.completeExceptionally(e);
+          } else if (ret.isDone() || !ret.complete(wrap.apply(val))) {
+            // Cancelled after it was handed the connection
+            warn(Msg.EXCEPTION_CLOSING_CONNECTION, val.close(false));
+          }
+        });
+    return ret;
+  }
+
+  /** Cancel {@code inner} if {@code outer} is cancelled. */
+  private static void cancelWith(
+      final CompletableFuture<?> outer, final CompletableFuture<?> inner) {
+    outer.whenComplete(
+        (v, e) -> {
+          if (outer.isCancelled()) {
+            inner.cancel(false);
+          }
+        });
+  }
+
+  private static <T> CompletableFuture<T> failed(final Throwable e) {
+    final CompletableFuture<T> ret = new CompletableFuture<>();
+    ret.completeExceptionally(e);
+    return ret;
+  }
+
+  private CompletableFuture<Pooled<C>> takeAsync(
+      final long start, final long timeout, final TimeUnit timeoutUnit) {
+    final CompletableFuture<Pooled<C>> ret = new CompletableFuture<>();
+    Pooled<C> val = reclaim();
+    if (val == null) {
+      val = free.poll();
+    }
+    while (val != null && !validate(val)) {
+      val = free.poll();
+    }
+    if (val != null) {
+      if (free.isBelow(config.getRefillThreshold()) || isMaintenanceDue(start)) {
+        signal();
+      }
+      acquired(val, start);
+      ret.complete(val);
+      return ret;
+    }
+    if (breaker != null && breaker.isOpen()) {
+      ret.completeExceptionally(new HexaneCircuitOpenException(Msg.CIRCUIT_OPEN));
+      return ret;
+    }
+    if (timeout == Config.UNSET) {
+      // Doesn't wait, the same as take
+      signal();
+      ret.completeExceptionally(timedOut(start));
+      return ret;
+    }
+    if (admission != null) {
+      if (!admission.enter()) {
+        signal();
+        ret.completeExceptionally(new HexaneRejectedException(Msg.POOL_SATURATED));
+        return ret;
+      }
+      ret.whenComplete((v, e) -> admission.leave());
+    }
+    final Waiter<C> waiter = new Waiter<>(ret, start);
+    this.waiters.add(waiter);
+    final ScheduledFuture<?> expiry =
+        config.getHousekeepingExecutor().schedule(() -> expire(waiter), timeout, timeoutUnit);
+    ret.whenComplete((v, e) -> expiry.cancel(false));
+    signal();
+    // Anything returned before we were queued won't have been handed to us
+    serve();
+    return ret;
+  }
+
+  private void expire(final Waiter<C> waiter) {
+    if (!waiter.claim()) {
+      return;
+    }
+    this.waiters.remove(waiter);
+    if (sizing != null) {
+      sizing.onConnectionTimeout(waiter.start, Clock.getCurrentTime());
+    }
+    config.getListener().onConnectionTimeout(waiter.start);
+    deliver(
+        () ->
+            waiter.future.completeExceptionally(
+                new SQLTransientConnectionException(Msg.POOL_TIMEOUT)));
+  }
+
+  /** Hand free connections to queued async callers, oldest first. */
+  private void serve() {
+    while (!this.waiters.isEmpty()) {
+      final Pooled<C> val = free.poll();
       if (val == null) {
-        config.getListener().onConnectionTimeout(start);
-        throw new SQLTransientConnectionException(Msg.POOL_TIMEOUT);
+        return;
+      }
+      if (!handOff(val)) {
+        free.offer(val);
+        return;
+      }
+    }
+  }
+
+  private boolean handOff(final Pooled<C> val) {
+    Waiter<C> waiter;
+    while ((waiter = this.waiters.poll()) != null) {
+      if (!waiter.claim()) {
+        // Expired or cancelled
+        continue;
       }
+      // Set before completing so the lease time is right if it comes straight back
       final long end = Clock.getCurrentTime();
       val.setAquired(end);
-      config.getListener().onConnectionAcquired(start, end);
+      if (leaks != null) {
+        leaks.onAcquired(val, null);
+      }
+      acquired(waiter.start, end);
+      final CompletableFuture<Pooled<C>> future = waiter.future;
+      deliver(
+          () -> {
+            if (!future.complete(val)) {
+              // Cancelled after it was handed the connection
+              warn(Msg.EXCEPTION_CLOSING_CONNECTION, val.close(false));
+            }
+          });
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Complete an async caller on the completion executor. Their callbacks would otherwise run on
+   * whichever thread returned or created a connection, inside another caller's close or on the
+   * maintenance thread.
+   */
+  private void deliver(final Runnable task) {
+    try {
+      config.getCompletionExecutor().execute(task);
+    } catch (final RejectedExecutionException e) {
+      task.run();
+    }
+  }
+
+  private void acquired(final Pooled<C> val, final long start) {
+    final long end = Clock.getCurrentTime();
+    val.setAquired(end);
+    if (leaks != null) {
+      leaks.onAcquired(val, Thread.currentThread());
+    }
+    acquired(start, end);
+  }
+
+  private void acquired(final long start, final long end) {
+    if (sizing != null) {
+      sizing.onConnectionAcquired(start, end);
+    }
+    config.getListener().onConnectionAcquired(start, end);
+  }
+
+  /**
+   * @return How often maintenance has to run to see every connection before it expires, or inside
+   *     its replace window if there is one so it is replaced rather than evicted.
+   */
+  private static long lifetimeInterval(final Config config) {
+    final long lifetime = config.getLifetimeTimeout();
+    if (lifetime == Config.UNSET) {
+      return Config.UNSET;
+    }
+    final long window = config.getLifetimeReplaceWindow();
+    // The window is never more than half the shortest lifetime
+    return Math.max(
+        1, window == Config.UNSET ? lifetime - config.getLifetimeJitter() : window);
+  }
+
+  private static long min(final long a, final long b) {
+    return a == Config.UNSET ? b : b == Config.UNSET ? a : Math.min(a, b);
+  }
+
+  private Pooled<C> reclaim() {
+    if (last == null) {
+      return null;
+    }
+    // Weak so a thread that goes quiet doesn't keep an evicted connection reachable
+    final WeakReference<Pooled<C>> ref = last.get();
+    final Pooled<C> val = ref == null ? null : ref.get();
+    if (val == null) {
+      return null;
+    }
+    if (free.claim(val)) {
       return val;
-    } catch (final InterruptedException e) {
-      Thread.currentThread().interrupt();
-      throw new SQLException(e);
+    }
+    last.remove();
+    return null;
+  }
+
+  private boolean isMaintenanceDue(final long now) {
+    return maintenanceInterval != Config.UNSET
+        && Clock.getElapsedTime(lastRefill, now) > maintenanceInterval;
+  }
+
+  /** Fill the pool and start housekeeping once the subclass is ready to open connections. */
+  void start() {
+    if (budget != null) {
+      budget.register(this);
+    }
+    final long interval = config.getHousekeepingInterval();
+    if (interval != Config.UNSET) {
+      final ScheduledExecutorService scheduler = config.getHousekeepingExecutor();
+      this.housekeeper =
+          scheduler.scheduleAtFixedRate(this::signal, interval, interval, Clock.getUnit());
+    }
+    final long keepalive = config.getKeepaliveInterval();
+    if (keepalive != Config.UNSET) {
+      // Checks a batch at a time so a tick is shorter than the interval
+      final long tick = Math.max(1, keepalive / 4);
+      this.keepalive =
+          config
+              .getHousekeepingExecutor()
+              .scheduleWithFixedDelay(this::keepalive, tick, tick, Clock.getUnit());
+    }
+    if (leaks != null) {
+      final long tick = Math.max(1, leaks.getThreshold() / 2);
+      this.leakCheck =
+          config
+              .getHousekeepingExecutor()
+              .scheduleWithFixedDelay(this::checkLeaks, tick, tick, Clock.getUnit());
+    }
+    signal();
+  }
+
+  /** Request a refill, unless one is already waiting to run. */
+  void signal() {
+    // Set first so a refill that is already running sees it once it finishes
+    requested = true;
+    if (scheduled.get() || !scheduled.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      executor.execute(task);
+    } catch (final RuntimeException e) {
+      scheduled.set(false);
+      throw e;
+    }
+  }
+
+  private void maintain() {
+    // Only one refill at a time, one on another thread would open connections that lose the race
+    // for a place in total. Demand arriving during the refill schedules another once it is done.
+    requested = false;
+    try {
+      refill();
+    } finally {
+      scheduled.set(false);
+    }
+    if (requested) {
+      signal();
+    }
+  }
+
+  /**
+   * Called once when a lease ends, however the connection is disposed of.
+   *
+   * @param lane The priority class the lease was taken from, or null if there are none.
+   */
+  void release(final PriorityGate.Lane lane) {
+    if (lane != null) {
+      gate.release(lane);
     }
   }
 
@@ -90,24 +724,70 @@ abstract class BasePool<C> implements AutoCloseable {
     if (state != STATE_OK) {
       return;
     }
+    if (sizing != null) {
+      sizing.onConnectionReturned(val.getAquired(), Clock.getCurrentTime());
+    }
+    if (admission != null) {
+      admission.onConnectionReturned(val.getAquired(), Clock.getCurrentTime());
+    }
     config.getListener().onConnectionReturned(val.getAquired());
-    this.free.addFirst(val);
+    if (!this.free.offer(val)) {
+      // Evicted by maintenance while it was leased
+      warn(Msg.EXCEPTION_CLOSING_CONNECTION, val.destroy());
+      return;
+    }
+    if (last != null) {
+      final WeakReference<Pooled<C>> ref = last.get();
+      if (ref == null || ref.get() != val) {
+        last.set(new WeakReference<>(val));
+      }
+    }
+    serve();
   }
 
   void remove(final Pooled<C> val) {
     if (state != STATE_OK) {
       return;
     }
-    this.all.remove(val);
-    this.total.decrementAndGet();
+    this.free.remove(val);
+    if (!this.all.remove(val)) {
+      // Already evicted by maintenance
+      return;
+    }
+    decrementTotal();
     unregister(val);
+    health.onFailure();
     config.getListener().onConnectionErrorEviction();
-    executor.execute(task);
+    signal();
   }
 
   @Override
   public void close() throws SQLException {
     this.state = STATE_CLOSED;
+    final ScheduledFuture<?> housekeeper = this.housekeeper;
+    if (housekeeper != null) {
+      housekeeper.cancel(false);
+    }
+    final ScheduledFuture<?> keepalive = this.keepalive;
+    if (keepalive != null) {
+      keepalive.cancel(false);
+    }
+    final ScheduledFuture<?> leakCheck = this.leakCheck;
+    if (leakCheck != null) {
+      leakCheck.cancel(false);
+    }
+    Waiter<C> waiter;
+    while ((waiter = this.waiters.poll()) != null) {
+      if (waiter.claim()) {
+        waiter.future.completeExceptionally(new SQLNonTransientException(Msg.POOL_IS_CLOSED));
+      }
+    }
+    if (gate != null) {
+      gate.close();
+    }
+    if (budget != null) {
+      budget.unregister(this);
+    }
     final InternalListener listeners = config.getListener();
     SQLException exception = null;
     final BooleanRef fatal = new BooleanRef(false);
@@ -115,7 +795,7 @@ abstract class BasePool<C> implements AutoCloseable {
     while ((item = this.free.poll()) != null) {
       exception = Util.close(config, exception, fatal, item);
       this.all.remove(item);
-      this.total.decrementAndGet();
+      decrementTotal();
       listeners.onDataSourceClosedEviction();
     }
     final Iterator<Pooled<C>> it = this.all.iterator();
@@ -123,36 +803,55 @@ abstract class BasePool<C> implements AutoCloseable {
       item = it.next();
       exception = Util.close(config, exception, fatal, item);
       it.remove();
-      this.total.decrementAndGet();
+      decrementTotal();
       listeners.onDataSourceClosedEviction();
     }
     closeRegistered();
     listeners.onDataSourceClosed();
-    final AutoCloseable closeable = config.getMaintenanceExecutorClosable();
-    if (closeable != null) {
-      exception = Util.close(closeable, exception);
-    }
+    exception = config.closeExecutors(exception);
     if (exception != null) {
       throw exception;
     }
   }
 
   void refill() {
-    final int coreSize = config.getCorePoolSize(), maxSize = config.getMaxPoolSize();
-    final long idle = config.getIdleTimeout(), lifetime = config.getLifetimeTimeout();
+    this.lastRefill = Clock.getCurrentTime();
+    final int target = sizing == null ? config.getCorePoolSize() : sizing.evaluate(lastRefill);
+    final int coreSize = draining ? 0 : target;
+    final int maxSize = config.getMaxPoolSize();
+    final int minFree = Math.max(1, config.getRefillThreshold());
     int total = this.total.get();
     for (; ; ) {
-      if (state != STATE_OK) {
+      // Interrupted opens fail straight away, don't spin on them
+      if (state != STATE_OK || Thread.currentThread().isInterrupted()) {
         return;
       }
-      final boolean demand = this.free.size() == 0, capacity = total < maxSize;
+      final boolean demand = this.free.isBelow(minFree), capacity = total < maxSize;
       final long now = Clock.getCurrentTime();
       if (total < coreSize || (demand && capacity)) {
-        addNew(total, maxSize, now);
+        if (breaker != null && !breaker.canAttempt()) {
+          // Backing off, the breaker signals again once it is time to retry
+          removeExpired(now);
+          return;
+        }
+        if (budget != null && !budget.hasRoom(this)) {
+          // Every connection the budget allows is open, the budget signals once one is given up
+          removeExpired(now);
+          return;
+        }
+        final int count = Math.min(Math.max(coreSize - total, 1), maxSize - total);
+        if (count > 1 && config.getCreationConcurrency() > 1) {
+          if (!addNewInParallel(Math.min(count, config.getCreationConcurrency()), maxSize)) {
+            // Still opening, the next borrow or housekeeping pass carries on from here
+            return;
+          }
+        } else {
+          addNew(total, maxSize, now);
+        }
       } else if (total > coreSize) {
-        removeIdle(idle, now);
+        removeIdle(coreSize, now);
       }
-      removeExpired(lifetime, now);
+      removeExpired(now);
       total = this.total.get();
       if (total >= coreSize) {
         return;
@@ -160,76 +859,429 @@ abstract class BasePool<C> implements AutoCloseable {
     }
   }
 
+  /**
+   * Block until the pool holds {@code corePoolSize} connections if a prewarm timeout is configured.
+   * The pool is closed if they can't be opened in time.
+   */
+  void prewarm() throws SQLException {
+    final long timeout = config.getPrewarmTimeout();
+    if (timeout == Config.UNSET) {
+      return;
+    }
+    try {
+      if (prewarm(timeout)) {
+        return;
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Util.close(this, new SQLException(e));
+    }
+    throw Util.close(this, new SQLTransientConnectionException(Msg.PREWARM_TIMEOUT));
+  }
+
+  boolean prewarm(final long timeout) throws InterruptedException {
+    final int coreSize = config.getCorePoolSize(), maxSize = config.getMaxPoolSize();
+    final Executor creator = Util.defaultIfNull(config.getCreationExecutor(), executor);
+    final long start = Clock.getCurrentTime();
+    int total;
+    while ((total = this.total.get()) < coreSize) {
+      if (state != STATE_OK) {
+        return false;
+      }
+      final long remaining = timeout - Clock.getElapsedTime(start, Clock.getCurrentTime());
+      if (remaining <= 0 || (breaker != null && !breaker.canAttempt())) {
+        return false;
+      }
+      final int count = Math.min(coreSize - total, config.getCreationConcurrency());
+      if (!addNew(creator, count, maxSize).await(remaining, Clock.getUnit())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Create {@code count} connections at once on the creation executor and wait for them to finish.
+   * Each one still has to win a place in {@code total} so the limit holds. Waits no longer than
+   * the connection timeout so a stalled creation executor can't hold maintenance up forever.
+   *
+   * @return false If they did not all finish in time.
+   */
+  boolean addNewInParallel(final int count, final int limit) {
+    final CountDownLatch latch = addNew(config.getCreationExecutor(), count, limit);
+    final long timeout = config.getConnectionTimeout();
+    try {
+      if (timeout == Config.UNSET) {
+        latch.await();
+        return true;
+      }
+      return latch.await(timeout, config.getConnectionTimeoutUnit());
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private CountDownLatch addNew(final Executor creator, final int count, final int limit) {
+    final CountDownLatch latch = new CountDownLatch(count);
+    for (int i = 0; i < count; ++i) {
+      final Runnable create =
+          () -> {
+            try {
+              addNew(this.total.get(), limit, Clock.getCurrentTime());
+            } finally {
+              latch.countDown();
+            }
+          };
+      try {
+        creator.execute(create);
+      } catch (final RejectedExecutionException e) {
+        create.run();
+      }
+    }
+    return latch;
+  }
+
   void addNew(int total, final int limit, final long start) {
-    final C value = getConnection();
-    if (value == null) {
+    if (budget != null && !budget.tryAcquire(this)) {
       return;
     }
-    final AutoCloseable close = getCloser(value);
-    final Connection conn = getConnection(value);
-    if (conn == null) {
+    if (breaker != null && !breaker.tryAttempt()) {
+      if (budget != null) {
+        budget.release();
+      }
       return;
     }
-    try {
-      if (!conn.isValid(config.getValidationTimeout())) {
-        return;
+    final Pooled<C> item = open();
+    if (item == null) {
+      if (budget != null) {
+        budget.release();
+      }
+      if (breaker != null) {
+        breaker.onFailure();
       }
-      defaults.initialize(conn);
-    } catch (final SQLException e) {
       return;
     }
-    final int cacheSize = config.getStatementCacheSize();
-    final InternalListener listener = config.getListener();
-    final StatementCache cache =
-        cacheSize > 0 ? new LRUStatementCache(cacheSize, listener) : StatementCache.INSTANCE;
-    final Pooled<C> item = new Pooled<>(this, value, conn, close, cache);
+    if (breaker != null) {
+      breaker.onSuccess();
+    }
     boolean add = false;
     do {
-      if (this.total.compareAndSet(total, total + 1)) {
+      if (total < limit && this.total.compareAndSet(total, total + 1)) {
         add = true;
         break;
       }
     } while ((total = this.total.get()) < limit);
     if (!add) {
-      Util.close(close);
+      if (budget != null) {
+        budget.release();
+      }
+      item.destroy();
       return;
     }
+    admit(item);
+    config.getListener().onConnectionCreation(start);
+  }
+
+  /** @return A validated and initialized connection that has not been added to the pool yet. */
+  private Pooled<C> open() {
+    return onDriver(
+        this::connect,
+        null,
+        item -> {
+          if (item != null) {
+            warn(Msg.EXCEPTION_CLOSING_CONNECTION, item.destroy());
+          }
+        });
+  }
+
+  /**
+   * Run a call into the driver on the driver executor if there is one. Drivers often hold a
+   * monitor while they talk to the database, which would pin a virtual thread.
+   *
+   * @param interrupted Returned if the caller is interrupted while it waits.
+   * @param discard Given the result of a call the caller stopped waiting for.
+   */
+  private <T> T onDriver(final Supplier<T> call, final T interrupted, final Consumer<T> discard) {
+    final Executor driver = config.getDriverExecutor();
+    if (driver == null) {
+      return call.get();
+    }
+    final CompletableFuture<T> future;
+    try {
+      future = CompletableFuture.supplyAsync(call, driver);
+    } catch (final RejectedExecutionException e) {
+      return call.get();
+    }
+    try {
+      return future.get();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.thenAccept(discard);
+      return interrupted;
+    } catch (final ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  private Pooled<C> connect() {
+    final long start = Clock.getCurrentTime();
+    final C value = getConnection();
+    if (value == null) {
+      health.onFailure();
+      return null;
+    }
+    final AutoCloseable close = getCloser(value);
+    final Connection conn = getConnection(value);
+    if (conn == null) {
+      health.onFailure();
+      return null;
+    }
+    final long opened = Clock.getCurrentTime();
+    try {
+      if (!conn.isValid(config.getValidationTimeout())) {
+        health.onFailure();
+        return null;
+      }
+      final long validated = Clock.getCurrentTime();
+      health.onSuccess(
+          Clock.getElapsedTime(start, opened), Clock.getElapsedTime(opened, validated));
+      defaults.initialize(conn);
+    } catch (final SQLException e) {
+      health.onFailure();
+      return null;
+    }
+    final int cacheSize = config.getStatementCacheSize();
+    final StatementCache cache =
+        cacheSize > 0
+            ? new LRUStatementCache(cacheSize, config.getListener())
+            : StatementCache.INSTANCE;
+    return new Pooled<>(this, value, conn, close, cache);
+  }
+
+  /** Make an item that already holds a place in {@code total} available to borrowers. */
+  private void admit(final Pooled<C> item) {
     register(item);
     this.all.add(item);
+    if (this.idleDeadlines != null) {
+      this.idleDeadlines.add(item, item.getCreated() + config.getIdleTimeout());
+    }
+    if (this.lifetimeDeadlines != null) {
+      item.setExpires(item.getCreated() + lifetime());
+      final long window = config.getLifetimeReplaceWindow();
+      this.lifetimeDeadlines.add(
+          item, window == Config.UNSET ? item.getExpires() : item.getExpires() - window);
+    }
     this.free.add(item);
-    listener.onConnectionCreation(start);
+    serve();
+  }
+
+  /** @return The lifetime of a new connection, shortened by a random amount up to the jitter. */
+  private long lifetime() {
+    final long lifetime = config.getLifetimeTimeout(), jitter = config.getLifetimeJitter();
+    if (jitter <= 0) {
+      return lifetime;
+    }
+    return lifetime - ThreadLocalRandom.current().nextLong(jitter + 1);
   }
 
-  private void removeIdle(final long idle, final long now) {
-    if (idle == Config.UNSET) {
+  private void removeIdle(final int coreSize, final long now) {
+    if (idleDeadlines == null) {
       return;
     }
-    for (final Pooled<C> val : all) {
-      if (Clock.getElapsedTime(val.getAccessed(), now) > idle && free.remove(val)) {
-        this.all.remove(val);
-        this.total.decrementAndGet();
+    final long idle = config.getIdleTimeout();
+    int evicted = 0;
+    Pooled<C> val;
+    while (evicted < config.getEvictionBatchSize()
+        && this.total.get() > coreSize
+        && (val = idleDeadlines.poll(now)) != null) {
+      if (val.getState() == Pooled.STATE_REMOVED) {
+        continue;
+      }
+      final long deadline = val.getAccessed() + idle;
+      if (Clock.getElapsedTime(deadline, now) <= 0) {
+        // Used since it was queued
+        idleDeadlines.add(val, deadline);
+      } else if (free.claim(val)) {
+        // Claimed first so one that is leased is left alone
+        free.remove(val);
+        evict(val);
         config.getListener().onConnectionIdleEviction();
-        return;
+        ++evicted;
+      } else if (val.getState() != Pooled.STATE_REMOVED) {
+        // Leased, it can't be idle until at least a full timeout from now
+        idleDeadlines.add(val, now + idle);
       }
     }
   }
 
-  private void removeExpired(final long lifetime, final long now) {
-    if (lifetime == Config.UNSET) {
+  private void removeExpired(final long now) {
+    if (lifetimeDeadlines == null) {
       return;
     }
-    for (final Pooled<C> val : all) {
-      if (Clock.getElapsedTime(val.getCreated(), now) > lifetime) {
+    int evicted = 0;
+    Pooled<C> val;
+    while (evicted < config.getEvictionBatchSize()
+        && (val = lifetimeDeadlines.poll(now)) != null) {
+      if (val.getState() == Pooled.STATE_REMOVED) {
+        continue;
+      }
+      if (Clock.getElapsedTime(now, val.getExpires()) > 0) {
+        // Still inside the replace window
+        if (!free.claim(val)) {
+          // Leased, it is replaced on a later pass once it has been returned
+          lifetimeDeadlines.add(val, now);
+          continue;
+        }
+        if (!replace(val, now)) {
+          lifetimeDeadlines.add(val, val.getExpires());
+          continue;
+        }
+      } else {
         val.expire();
-        this.free.remove(val);
-        this.all.remove(val);
-        this.total.decrementAndGet();
-        config.getListener().onConnectionLifetimeEviction();
-        break;
+        if (free.remove(val)) {
+          evict(val);
+        } else if (this.all.remove(val)) {
+          // The borrower closes it when they are done, it is still open until then so it keeps
+          // its place in the budget
+          this.total.decrementAndGet();
+          unregister(val);
+        }
       }
+      config.getListener().onConnectionLifetimeEviction();
+      ++evicted;
     }
   }
 
+  /**
+   * Open a successor to {@code val} and hand it {@code val}'s place in {@code total} and the
+   * budget. The successor is available before {@code val} is withdrawn so the pool never has less
+   * capacity than before. {@code val} must have been claimed so it can be closed as soon as it is
+   * withdrawn, a leased connection is only replaced once it has been returned.
+   *
+   * @return false If the successor could not be opened, {@code val} is free again.
+   */
+  private boolean replace(final Pooled<C> val, final long start) {
+    if (breaker != null && !breaker.tryAttempt()) {
+      giveBack(val);
+      return false;
+    }
+    final Pooled<C> item = open();
+    if (item == null) {
+      if (breaker != null) {
+        breaker.onFailure();
+      }
+      giveBack(val);
+      return false;
+    }
+    if (breaker != null) {
+      breaker.onSuccess();
+    }
+    if (!this.all.remove(val)) {
+      // Evicted some other way in the meantime and its place already given up
+      item.destroy();
+      return true;
+    }
+    admit(item);
+    config.getListener().onConnectionCreation(start);
+    val.expire();
+    unregister(val);
+    free.remove(val);
+    warn(Msg.EXCEPTION_CLOSING_CONNECTION, val.destroy());
+    return true;
+  }
+
+  /** Make a connection claimed by maintenance available again. */
+  private void giveBack(final Pooled<C> val) {
+    if (!this.free.offer(val)) {
+      // Removed while it was claimed
+      warn(Msg.EXCEPTION_CLOSING_CONNECTION, val.destroy());
+      return;
+    }
+    serve();
+  }
+
+  private void evict(final Pooled<C> val) {
+    if (!this.all.remove(val)) {
+      return;
+    }
+    decrementTotal();
+    unregister(val);
+    warn(Msg.EXCEPTION_CLOSING_CONNECTION, val.destroy());
+  }
+
+  /** Called once the borrower of a connection that expired while it was leased has closed it. */
+  void closedExpired() {
+    if (budget != null) {
+      budget.release();
+    }
+  }
+
+  private void decrementTotal() {
+    this.total.decrementAndGet();
+    if (budget != null) {
+      budget.release();
+    }
+  }
+
+  /**
+   * Close an idle connection held above the core size so its place in a shared connection budget
+   * can be used by another pool.
+   *
+   * @return {@code true} if a connection was closed.
+   */
+  boolean shed() {
+    if (state != STATE_OK || this.total.get() <= coreSize()) {
+      return false;
+    }
+    final Pooled<C> val = free.poll();
+    if (val == null) {
+      return false;
+    }
+    if (this.total.get() <= coreSize()) {
+      free.offer(val);
+      return false;
+    }
+    free.remove(val);
+    evict(val);
+    config.getListener().onConnectionIdleEviction();
+    return true;
+  }
+
+  private int coreSize() {
+    if (draining) {
+      return 0;
+    }
+    return sizing == null ? config.getCorePoolSize() : sizing.getTarget();
+  }
+
+  CircuitBreaker getBreaker() {
+    return breaker;
+  }
+
+  PoolHealth getHealth() {
+    return health;
+  }
+
+  /**
+   * While draining the pool keeps no connections open beyond those leased or still idle, so {@link
+   * #shed()} can close every idle connection.
+   */
+  void setDraining(final boolean draining) {
+    this.draining = draining;
+  }
+
+  boolean isDraining() {
+    return draining;
+  }
+
   void warn(final String msg, final SQLException e) {
     if (e == null) {
       return;
@@ -267,4 +1319,25 @@ abstract class BasePool<C> implements AutoCloseable {
   boolean isClosed() {
     return state == STATE_CLOSED;
   }
+
+  private static final class Waiter<C> {
+    final CompletableFuture<Pooled<C>> future;
+    final long start;
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    Waiter(final CompletableFuture<Pooled<C>> future, final long start) {
+      this.future = future;
+      this.start = start;
+    }
+
+    /**
+     * The future is completed off the thread that decides how, so whoever claims the waiter first
+     * is the only one that may complete it.
+     *
+     * @return true If nothing else has claimed the waiter and the caller hasn't cancelled.
+     */
+    boolean claim() {
+      return !future.isDone() && claimed.compareAndSet(false, true);
+    }
+  }
 }
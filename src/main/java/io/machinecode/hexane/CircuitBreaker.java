@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Stops a pool opening connections to a database that is failing.
+ *
+ * <p>After {@code threshold} consecutive failures to open a connection the breaker opens and no
+ * more attempts are made until a backoff has passed. The backoff doubles each time a retry fails,
+ * up to a maximum, and is randomised between half and all of that so pools that failed together
+ * don't retry together. Once it has passed the breaker is half open and a single attempt is let
+ * through as a probe, closing the breaker if it succeeds and opening it again if it fails.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+final class CircuitBreaker {
+  static final int STATE_CLOSED = 0;
+  static final int STATE_OPEN = 1;
+  static final int STATE_HALF_OPEN = 2;
+
+  private final Config config;
+  private final Runnable retry;
+  private final int threshold;
+  private final long initialBackoff;
+  private final long maxBackoff;
+  private volatile int state = STATE_CLOSED;
+  private int failures;
+  private long backoff;
+  private volatile long retryAt;
+
+  /** @param retry Run once the backoff has passed so the probe doesn't wait for traffic. */
+  CircuitBreaker(final Config config, final Runnable retry) {
+    this.config = config;
+    this.retry = retry;
+    this.threshold = config.getCircuitBreakerThreshold();
+    this.initialBackoff = config.getCircuitBreakerBackoff();
+    this.maxBackoff = config.getCircuitBreakerMaxBackoff();
+  }
+
+  /** @return {@code true} if callers should be turned away rather than wait for a connection. */
+  boolean isOpen() {
+    return state == STATE_OPEN && Clock.getCurrentTime() - retryAt < 0;
+  }
+
+  /** @return {@code true} if {@link #tryAttempt()} may allow an attempt now. */
+  boolean canAttempt() {
+    final int state = this.state;
+    return state == STATE_CLOSED || (state == STATE_OPEN && !isOpen());
+  }
+
+  /**
+   * Every successful call must be followed by a call to {@link #onSuccess()} or {@link
+   * #onFailure()}.
+   *
+   * @return {@code true} if a connection may be opened.
+   */
+  boolean tryAttempt() {
+    if (state == STATE_CLOSED) {
+      return true;
+    }
+    synchronized (this) {
+      if (state != STATE_OPEN || isOpen()) {
+        return false;
+      }
+      state = STATE_HALF_OPEN;
+    }
+    config.getListener().onCircuitHalfOpen();
+    return true;
+  }
+
+  void onSuccess() {
+    if (state == STATE_CLOSED && failures == 0) {
+      return;
+    }
+    final boolean closed;
+    synchronized (this) {
+      failures = 0;
+      backoff = 0;
+      closed = state != STATE_CLOSED;
+      state = STATE_CLOSED;
+    }
+    if (closed) {
+      config.getListener().onCircuitClosed();
+    }
+  }
+
+  void onFailure() {
+    final long delay;
+    final int failures;
+    synchronized (this) {
+      failures = ++this.failures;
+      if (state == STATE_OPEN || (state == STATE_CLOSED && failures < threshold)) {
+        return;
+      }
+      backoff = backoff == 0 ? initialBackoff : Math.min(maxBackoff, backoff * 2);
+      final long half = backoff / 2;
+      delay = half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+      retryAt = Clock.getCurrentTime() + delay;
+      state = STATE_OPEN;
+    }
+    config.getListener().onCircuitOpen(failures, delay);
+    try {
+      config.getHousekeepingExecutor().schedule(retry, delay, Clock.getUnit());
+    } catch (final RejectedExecutionException e) {
+      // Shut down, the next caller will retry instead
+    }
+  }
+
+  int getState() {
+    return state;
+  }
+}
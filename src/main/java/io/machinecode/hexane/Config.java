@@ -19,12 +19,21 @@ package io.machinecode.hexane;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLNonTransientException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.sql.ConnectionPoolDataSource;
 import javax.sql.DataSource;
@@ -43,14 +52,49 @@ public final class Config {
   private final TimeUnit connectionTimeoutUnit;
   private final long idleTimeout;
   private final long lifetimeTimeout;
+  private final long lifetimeJitter;
+  private final long lifetimeReplaceWindow;
   private final int validationTimeout;
   private final int maxPoolSize;
   private final int corePoolSize;
   private final int statementCacheSize;
+  private final FreeListType freeListType;
+  private final int freeListStripes;
+  private final boolean threadAffinity;
+  private final boolean fairHandOff;
+  private final int refillThreshold;
   private final String user;
   private final String password;
   private final Executor maintenanceExecutor;
   private final AutoCloseable maintenanceExecutorClosable;
+  private final int creationConcurrency;
+  private final Executor creationExecutor;
+  private final AutoCloseable creationExecutorClosable;
+  private final long prewarmTimeout;
+  private final Executor driverExecutor;
+  private final AutoCloseable driverExecutorClosable;
+  private final Executor completionExecutor;
+  private final int evictionBatchSize;
+  private final long adaptiveSizingInterval;
+  private final int maxWaiters;
+  private final List<PriorityClass> priorityClasses;
+  private final long maxEstimatedWait;
+  private final long housekeepingInterval;
+  private final ScheduledExecutorService housekeepingExecutor;
+  private final AutoCloseable housekeepingExecutorClosable;
+  private final ConnectionBudget budget;
+  private final long keyedIdleTimeout;
+  private final long healthHalfLife;
+  private final int circuitBreakerThreshold;
+  private final long validationIdleThreshold;
+  private final long keepaliveInterval;
+  private final int keepaliveBatchSize;
+  private final String validationQuery;
+  private final long leakDetectionThreshold;
+  private final int leakTraceSampleRate;
+  private final long circuitBreakerBackoff;
+  private final long circuitBreakerMaxBackoff;
+  private final int unhealthyErrorPercent;
 
   private final Boolean autoCommit;
   private final Integer holdability;
@@ -69,9 +113,27 @@ public final class Config {
   private final ExceptionHandler exceptionHandler;
 
   Config(final Builder builder) {
+    this(builder, null, null, null);
+  }
+
+  /**
+   * @param partition Overrides the sizes, timeout and listener of {@code builder} if not null.
+   * @param shared A config whose executors are used rather than creating new ones if not null.
+   * @param budget The connection budget shared with other pools if not null.
+   */
+  Config(
+      final Builder builder,
+      final Partition partition,
+      final Config shared,
+      final ConnectionBudget budget) {
     final TimeUnit clockUnit = Clock.getUnit();
-    this.connectionTimeout = builder.connectionTimeout;
-    this.connectionTimeoutUnit = builder.connectionTimeoutUnit;
+    if (partition != null && partition.connectionTimeoutUnit != null) {
+      this.connectionTimeout = partition.connectionTimeout;
+      this.connectionTimeoutUnit = partition.connectionTimeoutUnit;
+    } else {
+      this.connectionTimeout = builder.connectionTimeout;
+      this.connectionTimeoutUnit = builder.connectionTimeoutUnit;
+    }
     this.idleTimeout =
         builder.idleTimeoutUnit == null
             ? UNSET
@@ -80,25 +142,154 @@ public final class Config {
         builder.lifetimeTimeoutUnit == null
             ? UNSET
             : clockUnit.convert(builder.lifetimeTimeout, builder.lifetimeTimeoutUnit);
+    if (this.lifetimeTimeout == UNSET) {
+      this.lifetimeJitter = 0;
+    } else if (builder.lifetimeJitterUnit != null) {
+      // Every connection has to live for at least one tick
+      this.lifetimeJitter =
+          Math.min(
+              this.lifetimeTimeout - 1,
+              clockUnit.convert(builder.lifetimeJitter, builder.lifetimeJitterUnit));
+    } else {
+      this.lifetimeJitter =
+          Math.min(
+              this.lifetimeTimeout - 1, this.lifetimeTimeout * builder.lifetimeJitterPercent / 100);
+    }
+    if (this.lifetimeTimeout == UNSET || builder.lifetimeReplaceWindowUnit == null) {
+      this.lifetimeReplaceWindow = UNSET;
+    } else {
+      // A successor has to live long enough not to need replacing as soon as it opens
+      this.lifetimeReplaceWindow =
+          Math.min(
+              (this.lifetimeTimeout - this.lifetimeJitter) / 2,
+              clockUnit.convert(builder.lifetimeReplaceWindow, builder.lifetimeReplaceWindowUnit));
+    }
     final long validation = builder.validationTimeoutUnit.toSeconds(builder.validationTimeout);
     if (validation > Integer.MAX_VALUE) {
       throw new IllegalArgumentException(); // TODO message
     }
     this.validationTimeout = (int) validation;
-    this.maxPoolSize = builder.maxPoolSize;
-    this.corePoolSize = builder.corePoolSize;
+    this.maxPoolSize =
+        partition == null || partition.maxPoolSize == UNSET
+            ? builder.maxPoolSize
+            : partition.maxPoolSize;
+    this.corePoolSize =
+        partition == null || partition.corePoolSize == UNSET
+            ? builder.corePoolSize
+            : partition.corePoolSize;
     this.statementCacheSize = builder.statementCacheSize;
+    this.freeListType = builder.freeListType;
+    this.freeListStripes =
+        builder.freeListStripes == UNSET
+            ? Runtime.getRuntime().availableProcessors()
+            : builder.freeListStripes;
+    this.threadAffinity = builder.threadAffinity;
+    this.fairHandOff = builder.fairHandOff;
+    this.refillThreshold = builder.refillThreshold;
     this.user = builder.user;
     this.password = builder.password;
-    if (builder.maintenanceExecutor == null) {
-
-      final ExecutorService executor = Executors.newSingleThreadExecutor();
+    final ThreadFactory threadFactory =
+        Util.defaultIfNull(builder.threadFactory, Executors.defaultThreadFactory());
+    if (shared != null) {
+      this.maintenanceExecutor = shared.maintenanceExecutor;
+      this.maintenanceExecutorClosable = null;
+    } else if (builder.maintenanceExecutor == null && builder.registry != null) {
+      // Refills open connections, they would hold up every other pool's timers on the scheduler
+      this.maintenanceExecutor = builder.registry.getCreationExecutor();
+      this.maintenanceExecutorClosable = null;
+    } else if (builder.maintenanceExecutor == null) {
+      final ExecutorService executor = Executors.newSingleThreadExecutor(threadFactory);
       this.maintenanceExecutor = executor;
       this.maintenanceExecutorClosable = executor::shutdown;
     } else {
       this.maintenanceExecutor = builder.maintenanceExecutor;
       this.maintenanceExecutorClosable = null;
     }
+    this.creationConcurrency = builder.creationConcurrency;
+    this.evictionBatchSize = builder.evictionBatchSize;
+    this.adaptiveSizingInterval =
+        builder.adaptiveSizingIntervalUnit == null
+            ? UNSET
+            : clockUnit.convert(builder.adaptiveSizingInterval, builder.adaptiveSizingIntervalUnit);
+    this.maxWaiters = builder.maxWaiters;
+    this.priorityClasses = new ArrayList<>(builder.priorityClasses.values());
+    this.maxEstimatedWait =
+        builder.maxEstimatedWaitUnit == null
+            ? UNSET
+            : clockUnit.convert(builder.maxEstimatedWait, builder.maxEstimatedWaitUnit);
+    this.housekeepingInterval =
+        builder.housekeepingIntervalUnit == null
+            ? UNSET
+            : clockUnit.convert(builder.housekeepingInterval, builder.housekeepingIntervalUnit);
+    if (shared != null) {
+      this.housekeepingExecutor = shared.housekeepingExecutor;
+      this.housekeepingExecutorClosable = null;
+    } else if (builder.housekeepingExecutor != null) {
+      this.housekeepingExecutor = builder.housekeepingExecutor;
+      this.housekeepingExecutorClosable = null;
+    } else if (builder.registry != null) {
+      this.housekeepingExecutor = builder.registry.getScheduler();
+      this.housekeepingExecutorClosable = null;
+    } else {
+      // Doesn't start a thread until something is scheduled
+      final ScheduledExecutorService executor =
+          Executors.newSingleThreadScheduledExecutor(threadFactory);
+      this.housekeepingExecutor = executor;
+      this.housekeepingExecutorClosable = executor::shutdown;
+    }
+    this.prewarmTimeout =
+        builder.prewarmTimeoutUnit == null
+            ? UNSET
+            : clockUnit.convert(builder.prewarmTimeout, builder.prewarmTimeoutUnit);
+    if (shared != null) {
+      this.creationExecutor = shared.creationExecutor;
+      this.creationExecutorClosable = null;
+    } else if (builder.creationExecutor != null) {
+      this.creationExecutor = builder.creationExecutor;
+      this.creationExecutorClosable = null;
+    } else if (builder.creationConcurrency > 1) {
+      final ThreadPoolExecutor executor =
+          new ThreadPoolExecutor(
+              builder.creationConcurrency,
+              builder.creationConcurrency,
+              1,
+              TimeUnit.MINUTES,
+              new LinkedBlockingQueue<>(),
+              threadFactory);
+      executor.allowCoreThreadTimeOut(true);
+      this.creationExecutor = executor;
+      this.creationExecutorClosable = executor::shutdown;
+    } else {
+      this.creationExecutor = null;
+      this.creationExecutorClosable = null;
+    }
+    if (shared != null) {
+      this.driverExecutor = shared.driverExecutor;
+      this.driverExecutorClosable = null;
+    } else if (builder.driverThreads > 0) {
+      // Always platform threads, these are for calls that would pin a virtual thread
+      final ThreadPoolExecutor executor =
+          new ThreadPoolExecutor(
+              builder.driverThreads,
+              builder.driverThreads,
+              1,
+              TimeUnit.MINUTES,
+              new LinkedBlockingQueue<>(),
+              Executors.defaultThreadFactory());
+      executor.allowCoreThreadTimeOut(true);
+      this.driverExecutor = executor;
+      this.driverExecutorClosable = executor::shutdown;
+    } else {
+      this.driverExecutor = null;
+      this.driverExecutorClosable = null;
+    }
+    if (shared != null) {
+      this.completionExecutor = shared.completionExecutor;
+    } else {
+      // The same default as CompletableFuture's async methods
+      this.completionExecutor =
+          Util.defaultIfNull(builder.completionExecutor, ForkJoinPool.commonPool());
+    }
     this.autoCommit = builder.autoCommit;
     this.holdability = builder.holdability == null ? null : builder.holdability.value;
     this.readOnly = builder.readOnly;
@@ -113,11 +304,66 @@ public final class Config {
     this.loggerFactory = LoggerType.getFactory(builder.loggerType);
     this.checkFatal = builder.exceptionHandler != EXCEPTION_HANDLER;
     this.exceptionHandler = builder.exceptionHandler;
-    if (builder.listener == NOOP_LISTENER) {
+    final HexaneListener listener =
+        partition == null || partition.listener == null ? builder.listener : partition.listener;
+    if (listener == NOOP_LISTENER) {
       this.listener = InternalListener.INSTANCE;
     } else {
-      this.listener = new DelegateInternalListener(builder.listener);
+      this.listener = new DelegateInternalListener(listener);
     }
+    if (budget == null && builder.registry != null) {
+      this.budget = builder.registry.getBudget();
+    } else {
+      this.budget = budget;
+    }
+    this.keyedIdleTimeout =
+        builder.keyedIdleTimeoutUnit == null
+            ? UNSET
+            : clockUnit.convert(builder.keyedIdleTimeout, builder.keyedIdleTimeoutUnit);
+    this.healthHalfLife = clockUnit.convert(builder.healthHalfLife, builder.healthHalfLifeUnit);
+    this.unhealthyErrorPercent = builder.unhealthyErrorPercent;
+    this.circuitBreakerThreshold = builder.circuitBreakerThreshold;
+    this.keepaliveInterval =
+        builder.keepaliveIntervalUnit == null
+            ? UNSET
+            : clockUnit.convert(builder.keepaliveInterval, builder.keepaliveIntervalUnit);
+    this.keepaliveBatchSize = builder.keepaliveBatchSize;
+    this.validationQuery = builder.validationQuery;
+    this.leakDetectionThreshold =
+        builder.leakDetectionThresholdUnit == null
+            ? UNSET
+            : clockUnit.convert(
+                builder.leakDetectionThreshold, builder.leakDetectionThresholdUnit);
+    this.leakTraceSampleRate = builder.leakTraceSampleRate;
+    this.validationIdleThreshold =
+        builder.validationIdleThresholdUnit == null
+            ? UNSET
+            : clockUnit.convert(
+                builder.validationIdleThreshold, builder.validationIdleThresholdUnit);
+    this.circuitBreakerBackoff =
+        clockUnit.convert(builder.circuitBreakerBackoff, builder.circuitBreakerBackoffUnit);
+    this.circuitBreakerMaxBackoff =
+        Math.max(
+            this.circuitBreakerBackoff,
+            clockUnit.convert(
+                builder.circuitBreakerMaxBackoff, builder.circuitBreakerMaxBackoffUnit));
+  }
+
+  /** Shut down the executors this config created itself. */
+  SQLException closeExecutors(SQLException exception) {
+    if (maintenanceExecutorClosable != null) {
+      exception = Util.close(maintenanceExecutorClosable, exception);
+    }
+    if (creationExecutorClosable != null) {
+      exception = Util.close(creationExecutorClosable, exception);
+    }
+    if (housekeepingExecutorClosable != null) {
+      exception = Util.close(housekeepingExecutorClosable, exception);
+    }
+    if (driverExecutorClosable != null) {
+      exception = Util.close(driverExecutorClosable, exception);
+    }
+    return exception;
   }
 
   long getConnectionTimeout() {
@@ -136,6 +382,14 @@ public final class Config {
     return lifetimeTimeout;
   }
 
+  long getLifetimeJitter() {
+    return lifetimeJitter;
+  }
+
+  long getLifetimeReplaceWindow() {
+    return lifetimeReplaceWindow;
+  }
+
   int getValidationTimeout() {
     return validationTimeout;
   }
@@ -152,6 +406,26 @@ public final class Config {
     return statementCacheSize;
   }
 
+  FreeListType getFreeListType() {
+    return freeListType;
+  }
+
+  int getFreeListStripes() {
+    return freeListStripes;
+  }
+
+  boolean isThreadAffinity() {
+    return threadAffinity;
+  }
+
+  boolean isFairHandOff() {
+    return fairHandOff;
+  }
+
+  int getRefillThreshold() {
+    return refillThreshold;
+  }
+
   String getUser() {
     return user;
   }
@@ -164,8 +438,104 @@ public final class Config {
     return maintenanceExecutor;
   }
 
-  AutoCloseable getMaintenanceExecutorClosable() {
-    return maintenanceExecutorClosable;
+  int getCreationConcurrency() {
+    return creationConcurrency;
+  }
+
+  Executor getCreationExecutor() {
+    return creationExecutor;
+  }
+
+  Executor getCompletionExecutor() {
+    return completionExecutor;
+  }
+
+  int getEvictionBatchSize() {
+    return evictionBatchSize;
+  }
+
+  long getAdaptiveSizingInterval() {
+    return adaptiveSizingInterval;
+  }
+
+  long getKeyedIdleTimeout() {
+    return keyedIdleTimeout;
+  }
+
+  long getHealthHalfLife() {
+    return healthHalfLife;
+  }
+
+  int getUnhealthyErrorPercent() {
+    return unhealthyErrorPercent;
+  }
+
+  long getKeepaliveInterval() {
+    return keepaliveInterval;
+  }
+
+  int getKeepaliveBatchSize() {
+    return keepaliveBatchSize;
+  }
+
+  String getValidationQuery() {
+    return validationQuery;
+  }
+
+  long getLeakDetectionThreshold() {
+    return leakDetectionThreshold;
+  }
+
+  int getLeakTraceSampleRate() {
+    return leakTraceSampleRate;
+  }
+
+  long getValidationIdleThreshold() {
+    return validationIdleThreshold;
+  }
+
+  int getCircuitBreakerThreshold() {
+    return circuitBreakerThreshold;
+  }
+
+  long getCircuitBreakerBackoff() {
+    return circuitBreakerBackoff;
+  }
+
+  long getCircuitBreakerMaxBackoff() {
+    return circuitBreakerMaxBackoff;
+  }
+
+  ConnectionBudget getBudget() {
+    return budget;
+  }
+
+  List<PriorityClass> getPriorityClasses() {
+    return priorityClasses;
+  }
+
+  int getMaxWaiters() {
+    return maxWaiters;
+  }
+
+  long getMaxEstimatedWait() {
+    return maxEstimatedWait;
+  }
+
+  long getHousekeepingInterval() {
+    return housekeepingInterval;
+  }
+
+  ScheduledExecutorService getHousekeepingExecutor() {
+    return housekeepingExecutor;
+  }
+
+  Executor getDriverExecutor() {
+    return driverExecutor;
+  }
+
+  long getPrewarmTimeout() {
+    return prewarmTimeout;
   }
 
   Boolean isAutoCommit() {
@@ -231,14 +601,66 @@ public final class Config {
     private int idleTimeout = UNSET;
     private TimeUnit lifetimeTimeoutUnit;
     private int lifetimeTimeout = UNSET;
+    private TimeUnit lifetimeJitterUnit;
+    private int lifetimeJitter = UNSET;
+    private int lifetimeJitterPercent = 0;
+    private TimeUnit lifetimeReplaceWindowUnit;
+    private int lifetimeReplaceWindow = UNSET;
     private TimeUnit validationTimeoutUnit;
     private int validationTimeout = UNSET;
     private int maxPoolSize = UNSET;
     private int corePoolSize = UNSET;
     private int statementCacheSize = UNSET;
+    private FreeListType freeListType = FreeListType.DEQUE;
+    private int freeListStripes = UNSET;
+    private boolean threadAffinity = false;
+    private boolean fairHandOff = false;
+    private int refillThreshold = 1;
     private String user;
     private String password;
     private Executor maintenanceExecutor;
+    private int creationConcurrency = 1;
+    private Executor creationExecutor;
+    private Executor completionExecutor;
+    private ThreadFactory threadFactory;
+    private HexaneRegistry registry;
+    private int driverThreads = 0;
+    private TimeUnit prewarmTimeoutUnit;
+    private int prewarmTimeout = UNSET;
+    private int evictionBatchSize = 1;
+    private TimeUnit adaptiveSizingIntervalUnit;
+    private int adaptiveSizingInterval = UNSET;
+    private int maxWaiters = UNSET;
+    private final Map<Integer, PriorityClass> priorityClasses = new TreeMap<>();
+    private TimeUnit maxEstimatedWaitUnit;
+    private final Map<String, Partition> partitions = new LinkedHashMap<>();
+    private int keyedMaxPoolSize = UNSET;
+    private int keyedCorePoolSize = 0;
+    private int keyedMaxTotalPoolSize = UNSET;
+    private TimeUnit keyedIdleTimeoutUnit;
+    private int keyedIdleTimeout = UNSET;
+    private final Map<String, Backend> backends = new LinkedHashMap<>();
+    private TimeUnit healthHalfLifeUnit = TimeUnit.SECONDS;
+    private int healthHalfLife = 10;
+    private int unhealthyErrorPercent = 50;
+    private int circuitBreakerThreshold = UNSET;
+    private TimeUnit validationIdleThresholdUnit;
+    private TimeUnit keepaliveIntervalUnit;
+    private int keepaliveInterval = UNSET;
+    private int keepaliveBatchSize = 2;
+    private String validationQuery;
+    private TimeUnit leakDetectionThresholdUnit;
+    private int leakDetectionThreshold = UNSET;
+    private int leakTraceSampleRate = 0;
+    private int validationIdleThreshold = UNSET;
+    private TimeUnit circuitBreakerBackoffUnit = TimeUnit.MILLISECONDS;
+    private int circuitBreakerBackoff = 100;
+    private TimeUnit circuitBreakerMaxBackoffUnit = TimeUnit.SECONDS;
+    private int circuitBreakerMaxBackoff = 30;
+    private int maxEstimatedWait = UNSET;
+    private TimeUnit housekeepingIntervalUnit;
+    private int housekeepingInterval = UNSET;
+    private ScheduledExecutorService housekeepingExecutor;
 
     private Boolean autoCommit;
     private HoldabilityType holdability;
@@ -287,6 +709,37 @@ public final class Config {
       return this;
     }
 
+    public Builder setLifetimeJitter(final int jitter, final TimeUnit unit) {
+      Objects.requireNonNull(unit);
+      if (jitter < 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.lifetimeJitter = jitter;
+      this.lifetimeJitterUnit = unit;
+      this.lifetimeJitterPercent = 0;
+      return this;
+    }
+
+    public Builder setLifetimeJitterPercent(final int percent) {
+      if (percent < 0 || percent > 100) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.lifetimeJitterPercent = percent;
+      this.lifetimeJitter = UNSET;
+      this.lifetimeJitterUnit = null;
+      return this;
+    }
+
+    public Builder setLifetimeReplaceWindow(final int window, final TimeUnit unit) {
+      Objects.requireNonNull(unit);
+      if (window < 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.lifetimeReplaceWindow = window;
+      this.lifetimeReplaceWindowUnit = unit;
+      return this;
+    }
+
     public Builder setValidationTimeout(final int timeout, final TimeUnit unit) {
       Objects.requireNonNull(unit);
       if (timeout < 0) {
@@ -312,6 +765,46 @@ public final class Config {
       return this;
     }
 
+    public Builder setFreeListType(final FreeListType freeListType) {
+      Objects.requireNonNull(freeListType);
+      this.freeListType = freeListType;
+      return this;
+    }
+
+    public Builder setFreeListStripes(final int freeListStripes) {
+      if (freeListStripes < 1) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.freeListStripes = freeListStripes;
+      return this;
+    }
+
+    public Builder setThreadAffinity(final boolean threadAffinity) {
+      this.threadAffinity = threadAffinity;
+      return this;
+    }
+
+    public Builder setFairHandOff(final boolean fairHandOff) {
+      this.fairHandOff = fairHandOff;
+      return this;
+    }
+
+    public Builder setRefillThreshold(final int refillThreshold) {
+      if (refillThreshold < 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.refillThreshold = refillThreshold;
+      return this;
+    }
+
+    public Builder setEvictionBatchSize(final int evictionBatchSize) {
+      if (evictionBatchSize < 1) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.evictionBatchSize = evictionBatchSize;
+      return this;
+    }
+
     public Builder setUser(final String user) {
       this.user = user;
       return this;
@@ -327,6 +820,251 @@ public final class Config {
       return this;
     }
 
+    public Builder setCreationConcurrency(final int creationConcurrency) {
+      if (creationConcurrency < 1) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.creationConcurrency = creationConcurrency;
+      return this;
+    }
+
+    public Builder setCreationExecutor(final Executor creationExecutor) {
+      this.creationExecutor = creationExecutor;
+      return this;
+    }
+
+    public Builder setCompletionExecutor(final Executor completionExecutor) {
+      this.completionExecutor = completionExecutor;
+      return this;
+    }
+
+    public Builder setAdaptiveSizingInterval(final int interval, final TimeUnit unit) {
+      Objects.requireNonNull(unit);
+      if (interval <= 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.adaptiveSizingInterval = interval;
+      this.adaptiveSizingIntervalUnit = unit;
+      return this;
+    }
+
+    public Builder setMaxWaiters(final int maxWaiters) {
+      if (maxWaiters < 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.maxWaiters = maxWaiters;
+      return this;
+    }
+
+    public Builder setPriorityClass(final int priority, final int reserved, final int max) {
+      if (reserved < 0 || max < 1 || reserved > max) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.priorityClasses.put(priority, new PriorityClass(priority, reserved, max));
+      return this;
+    }
+
+    public Builder addPartition(final String name, final Partition partition) {
+      Objects.requireNonNull(name);
+      Objects.requireNonNull(partition);
+      this.partitions.put(name, partition);
+      return this;
+    }
+
+    public Builder addBackend(final String name, final DataSource dataSource, final int weight) {
+      Objects.requireNonNull(name);
+      Objects.requireNonNull(dataSource);
+      if (weight < 1) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.backends.put(name, new Backend(dataSource, weight));
+      return this;
+    }
+
+    public Builder setHealthHalfLife(final int halfLife, final TimeUnit unit) {
+      Objects.requireNonNull(unit);
+      if (halfLife <= 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.healthHalfLife = halfLife;
+      this.healthHalfLifeUnit = unit;
+      return this;
+    }
+
+    public Builder setUnhealthyErrorPercent(final int unhealthyErrorPercent) {
+      if (unhealthyErrorPercent < 1 || unhealthyErrorPercent > 100) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.unhealthyErrorPercent = unhealthyErrorPercent;
+      return this;
+    }
+
+    public Builder setKeepaliveInterval(final int interval, final TimeUnit unit) {
+      Objects.requireNonNull(unit);
+      if (interval <= 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.keepaliveInterval = interval;
+      this.keepaliveIntervalUnit = unit;
+      return this;
+    }
+
+    public Builder setKeepaliveBatchSize(final int keepaliveBatchSize) {
+      if (keepaliveBatchSize < 1) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.keepaliveBatchSize = keepaliveBatchSize;
+      return this;
+    }
+
+    public Builder setLeakDetectionThreshold(final int threshold, final TimeUnit unit) {
+      Objects.requireNonNull(unit);
+      if (threshold <= 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.leakDetectionThreshold = threshold;
+      this.leakDetectionThresholdUnit = unit;
+      return this;
+    }
+
+    public Builder setLeakTraceSampleRate(final int percent) {
+      if (percent < 0 || percent > 100) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.leakTraceSampleRate = percent;
+      return this;
+    }
+
+    public Builder setValidationQuery(final String validationQuery) {
+      this.validationQuery = validationQuery;
+      return this;
+    }
+
+    public Builder setValidationIdleThreshold(final int threshold, final TimeUnit unit) {
+      Objects.requireNonNull(unit);
+      if (threshold < 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.validationIdleThreshold = threshold;
+      this.validationIdleThresholdUnit = unit;
+      return this;
+    }
+
+    public Builder setCircuitBreakerThreshold(final int circuitBreakerThreshold) {
+      if (circuitBreakerThreshold < 1) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.circuitBreakerThreshold = circuitBreakerThreshold;
+      return this;
+    }
+
+    public Builder setCircuitBreakerBackoff(final int backoff, final TimeUnit unit) {
+      Objects.requireNonNull(unit);
+      if (backoff <= 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.circuitBreakerBackoff = backoff;
+      this.circuitBreakerBackoffUnit = unit;
+      return this;
+    }
+
+    public Builder setCircuitBreakerMaxBackoff(final int backoff, final TimeUnit unit) {
+      Objects.requireNonNull(unit);
+      if (backoff <= 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.circuitBreakerMaxBackoff = backoff;
+      this.circuitBreakerMaxBackoffUnit = unit;
+      return this;
+    }
+
+    public Builder setKeyedMaxPoolSize(final int keyedMaxPoolSize) {
+      if (keyedMaxPoolSize < 1) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.keyedMaxPoolSize = keyedMaxPoolSize;
+      return this;
+    }
+
+    public Builder setKeyedCorePoolSize(final int keyedCorePoolSize) {
+      if (keyedCorePoolSize < 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.keyedCorePoolSize = keyedCorePoolSize;
+      return this;
+    }
+
+    public Builder setKeyedMaxTotalPoolSize(final int keyedMaxTotalPoolSize) {
+      if (keyedMaxTotalPoolSize < 1) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.keyedMaxTotalPoolSize = keyedMaxTotalPoolSize;
+      return this;
+    }
+
+    public Builder setKeyedIdleTimeout(final int timeout, final TimeUnit unit) {
+      Objects.requireNonNull(unit);
+      if (timeout <= 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.keyedIdleTimeout = timeout;
+      this.keyedIdleTimeoutUnit = unit;
+      return this;
+    }
+
+    public Builder setMaxEstimatedWait(final int wait, final TimeUnit unit) {
+      Objects.requireNonNull(unit);
+      if (wait < 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.maxEstimatedWait = wait;
+      this.maxEstimatedWaitUnit = unit;
+      return this;
+    }
+
+    public Builder setHousekeepingInterval(final int interval, final TimeUnit unit) {
+      Objects.requireNonNull(unit);
+      if (interval <= 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.housekeepingInterval = interval;
+      this.housekeepingIntervalUnit = unit;
+      return this;
+    }
+
+    public Builder setHousekeepingExecutor(final ScheduledExecutorService housekeepingExecutor) {
+      this.housekeepingExecutor = housekeepingExecutor;
+      return this;
+    }
+
+    public Builder setRegistry(final HexaneRegistry registry) {
+      this.registry = registry;
+      return this;
+    }
+
+    public Builder setThreadFactory(final ThreadFactory threadFactory) {
+      this.threadFactory = threadFactory;
+      return this;
+    }
+
+    public Builder setDriverThreads(final int driverThreads) {
+      if (driverThreads < 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.driverThreads = driverThreads;
+      return this;
+    }
+
+    public Builder setPrewarmTimeout(final int timeout, final TimeUnit unit) {
+      Objects.requireNonNull(unit);
+      if (timeout < 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.prewarmTimeout = timeout;
+      this.prewarmTimeoutUnit = unit;
+      return this;
+    }
+
     public Builder setAutoCommit(final boolean autoCommit) {
       this.autoCommit = autoCommit;
       return this;
@@ -413,13 +1151,24 @@ public final class Config {
       return new Config(this);
     }
 
+    Map<String, Config> getPartitionConfigs(final Config shared) {
+      final ConnectionBudget budget = budget(shared.getMaxPoolSize());
+      final Map<String, Config> ret = new LinkedHashMap<>();
+      for (final Map.Entry<String, Partition> entry : this.partitions.entrySet()) {
+        ret.put(entry.getKey(), new Config(this, entry.getValue(), shared, budget));
+      }
+      return ret;
+    }
+
     public HexaneDataSource buildDataSource(final DataSource dataSource) throws SQLException {
       assertValid();
       final Config config = new Config(this);
       try (final Connection conn = dataSource.getConnection()) {
         final Defaults defaults = Defaults.create(config, conn);
         final HexanePool pool = new HexanePool(config, defaults, dataSource);
-        final HexaneDataSource ret = new HexaneDataSource(pool, dataSource, defaults);
+        pool.prewarm();
+        final HexaneDataSource ret =
+            new HexaneDataSource(pool, dataSource, defaults, keyed(config, defaults, dataSource));
         config.getListener().onDataSourceCreation();
         return ret;
       }
@@ -432,7 +1181,10 @@ public final class Config {
       try (final Connection conn = dataSource.getConnection()) {
         final Defaults defaults = Defaults.create(config, conn);
         final HexanePool pool = new HexanePool(config, defaults, dataSource);
-        final HexaneManagedDataSource ret = new HexaneManagedDataSource(pool, dataSource, defaults);
+        pool.prewarm();
+        final HexaneManagedDataSource ret =
+            new HexaneManagedDataSource(
+                pool, dataSource, defaults, keyed(config, defaults, dataSource));
         config.getListener().onDataSourceCreation();
         return ret;
       }
@@ -445,6 +1197,7 @@ public final class Config {
       try (final Connection conn = dataSource.getPooledConnection().getConnection()) {
         final Defaults defaults = Defaults.create(config, conn);
         final HexanePooledPool pool = new HexanePooledPool(config, defaults, dataSource);
+        pool.prewarm();
         final HexaneConnectionPoolDataSource ret =
             new HexaneConnectionPoolDataSource(pool, dataSource, defaults);
         config.getListener().onDataSourceCreation();
@@ -458,12 +1211,119 @@ public final class Config {
       try (final Connection conn = dataSource.getXAConnection().getConnection()) {
         final Defaults defaults = Defaults.create(config, conn);
         final HexaneXAPool pool = new HexaneXAPool(config, defaults, dataSource);
+        pool.prewarm();
         final HexaneXADataSource ret = new HexaneXADataSource(pool, dataSource, defaults);
         config.getListener().onDataSourceCreation();
         return ret;
       }
     }
 
+    public HexanePartitionedDataSource buildPartitionedDataSource(final DataSource dataSource)
+        throws SQLException {
+      assertValid();
+      if (this.partitions.isEmpty()) {
+        throw new SQLNonTransientException(Msg.NO_PARTITIONS);
+      }
+      int core = 0;
+      for (final Partition it : this.partitions.values()) {
+        core += it.corePoolSize == UNSET ? this.corePoolSize : it.corePoolSize;
+      }
+      if (core > this.maxPoolSize) {
+        throw new SQLNonTransientException(Msg.PARTITION_CORE_POOL_SIZE);
+      }
+      final Config shared = new Config(this);
+      final HexanePartitionedDataSource ret = new HexanePartitionedDataSource(shared);
+      try (final Connection conn = dataSource.getConnection()) {
+        for (final Map.Entry<String, Config> entry : getPartitionConfigs(shared).entrySet()) {
+          final Config config = entry.getValue();
+          final Defaults defaults = Defaults.create(config, conn);
+          final HexanePool pool = new HexanePool(config, defaults, dataSource);
+          ret.add(entry.getKey(), new HexaneDataSource(pool, dataSource, defaults));
+          pool.prewarm();
+          config.getListener().onDataSourceCreation();
+        }
+      } catch (final SQLException e) {
+        throw Util.close(ret, e);
+      }
+      return ret;
+    }
+
+    public HexaneBalancedDataSource buildBalancedDataSource() throws SQLException {
+      assertValid();
+      if (this.backends.isEmpty()) {
+        throw new SQLNonTransientException(Msg.NO_BACKENDS);
+      }
+      final Config shared = new Config(this);
+      final HexaneBalancedDataSource ret = new HexaneBalancedDataSource(shared);
+      try {
+        for (final Map.Entry<String, Backend> entry : this.backends.entrySet()) {
+          final Backend backend = entry.getValue();
+          ret.add(entry.getKey(), routed(shared, backend.dataSource), backend.weight);
+        }
+        ret.start();
+      } catch (final SQLException e) {
+        throw Util.close(ret, e);
+      }
+      return ret;
+    }
+
+    public HexaneRoutingDataSource buildRoutingDataSource(
+        final DataSource primary, final DataSource... replicas) throws SQLException {
+      assertValid();
+      final Config shared = new Config(this);
+      final HexaneRoutingDataSource ret;
+      try {
+        ret = new HexaneRoutingDataSource(shared, routed(shared, primary));
+      } catch (final SQLException e) {
+        throw shared.closeExecutors(e);
+      }
+      try {
+        for (final DataSource replica : replicas) {
+          ret.add(routed(shared, replica));
+        }
+      } catch (final SQLException e) {
+        throw Util.close(ret, e);
+      }
+      return ret;
+    }
+
+    private HexaneDataSource routed(final Config shared, final DataSource dataSource)
+        throws SQLException {
+      final Config config = new Config(this, null, shared, null);
+      try (final Connection conn = dataSource.getConnection()) {
+        final Defaults defaults = Defaults.create(config, conn);
+        final HexanePool pool = new HexanePool(config, defaults, dataSource);
+        final HexaneDataSource ret = new HexaneDataSource(pool, dataSource, defaults);
+        try {
+          pool.prewarm();
+        } catch (final SQLException e) {
+          throw Util.close(ret, e);
+        }
+        config.getListener().onDataSourceCreation();
+        return ret;
+      }
+    }
+
+    /** @return A pool for each set of credentials if keyed pooling is enabled. */
+    KeyedPool keyed(final Config shared, final Defaults defaults, final DataSource dataSource) {
+      if (this.keyedMaxPoolSize == UNSET) {
+        return null;
+      }
+      final ConnectionBudget budget =
+          this.keyedMaxTotalPoolSize == UNSET ? null : budget(this.keyedMaxTotalPoolSize);
+      final Partition partition =
+          new Partition()
+              .setCorePoolSize(Math.min(this.keyedCorePoolSize, this.keyedMaxPoolSize))
+              .setMaxPoolSize(this.keyedMaxPoolSize);
+      return new KeyedPool(new Config(this, partition, shared, budget), defaults, dataSource);
+    }
+
+    /** @return A budget for a group of pools that also counts against the registry's. */
+    private ConnectionBudget budget(final int limit) {
+      return new ConnectionBudget(
+          limit, false, this.registry == null ? null : this.registry.getBudget());
+    }
+
     private void assertValid() throws SQLNonTransientException {
       if (this.validationTimeout == UNSET) {
         throw new SQLNonTransientException(Msg.VALIDATION_TIMEOUT);
@@ -474,6 +1334,83 @@ public final class Config {
       if (this.corePoolSize == UNSET) {
         throw new SQLNonTransientException(Msg.CORE_POOL_SIZE);
       }
+      int reserved = 0;
+      for (final PriorityClass it : this.priorityClasses.values()) {
+        reserved += it.reserved;
+      }
+      if (reserved > this.maxPoolSize) {
+        throw new SQLNonTransientException(Msg.PRIORITY_RESERVED);
+      }
+      if (this.threadAffinity && this.freeListType == FreeListType.DEQUE) {
+        throw new SQLNonTransientException(Msg.THREAD_AFFINITY);
+      }
+      // Maintenance waits for the connections it fans out, they can't queue behind it
+      final Executor maintenance =
+          this.maintenanceExecutor == null && this.registry != null
+              ? this.registry.getCreationExecutor()
+              : this.maintenanceExecutor;
+      if (this.creationConcurrency > 1
+          && this.creationExecutor != null
+          && this.creationExecutor == maintenance) {
+        throw new SQLNonTransientException(Msg.CREATION_EXECUTOR);
+      }
+    }
+  }
+
+  private static final class Backend {
+    final DataSource dataSource;
+    final int weight;
+
+    Backend(final DataSource dataSource, final int weight) {
+      this.dataSource = dataSource;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * The settings of one partition of a pool built with {@link
+   * Builder#buildPartitionedDataSource(DataSource)}. Anything not set here is taken from the
+   * builder the partition is added to.
+   */
+  public static final class Partition {
+    private TimeUnit connectionTimeoutUnit;
+    private int connectionTimeout = UNSET;
+    private int maxPoolSize = UNSET;
+    private int corePoolSize = UNSET;
+    private HexaneListener listener;
+
+    Partition() {}
+
+    public Partition setConnectionTimeout(final int timeout, final TimeUnit unit) {
+      Objects.requireNonNull(unit);
+      if (timeout < 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.connectionTimeout = timeout;
+      this.connectionTimeoutUnit = unit;
+      return this;
+    }
+
+    public Partition setMaxPoolSize(final int maxPoolSize) {
+      if (maxPoolSize < 1) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.maxPoolSize = maxPoolSize;
+      return this;
+    }
+
+    public Partition setCorePoolSize(final int corePoolSize) {
+      if (corePoolSize < 0) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.corePoolSize = corePoolSize;
+      return this;
+    }
+
+    public Partition setListener(final HexaneListener listener) {
+      Objects.requireNonNull(listener);
+      this.listener = listener;
+      return this;
     }
   }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A limit on the number of connections a group of pools may hold open between them.
+ *
+ * <p>A pool takes a place in the budget before opening a connection and gives it back when the
+ * connection is discarded. When the budget is used up a pool that needs a connection asks the
+ * others to close an idle one they are holding above their core size, so capacity that one pool
+ * isn't using can move to one that needs it.
+ *
+ * <p>A fair budget only lets a pool take a connection from another while it holds fewer than an
+ * equal share of the limit, and only from pools holding more than an equal share, so one busy pool
+ * can use capacity the others are not using without being able to starve them of it.
+ *
+ * <p>A pool that is refused a place is signalled to refill again as soon as any place is given up,
+ * so callers waiting on it don't sit out their timeout while another pool has capacity to spare.
+ *
+ * <p>A budget may have a parent, in which case a place has to be taken in both.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+final class ConnectionBudget {
+  private final int limit;
+  private final boolean fair;
+  private final ConnectionBudget parent;
+  private final AtomicInteger used = new AtomicInteger();
+  private final CopyOnWriteArrayList<BasePool<?>> pools = new CopyOnWriteArrayList<>();
+  private final Set<BasePool<?>> starved = ConcurrentHashMap.newKeySet();
+
+  ConnectionBudget(final int limit) {
+    this(limit, false, null);
+  }
+
+  ConnectionBudget(final int limit, final boolean fair, final ConnectionBudget parent) {
+    if (limit < 1) {
+      throw new IllegalArgumentException();
+    }
+    this.limit = limit;
+    this.fair = fair;
+    this.parent = parent;
+  }
+
+  void register(final BasePool<?> pool) {
+    pools.add(pool);
+    if (parent != null) {
+      parent.register(pool);
+    }
+  }
+
+  void unregister(final BasePool<?> pool) {
+    pools.remove(pool);
+    starved.remove(pool);
+    if (parent != null) {
+      parent.unregister(pool);
+    }
+  }
+
+  /**
+   * Take a place for a new connection, reclaiming one from another pool if necessary.
+   *
+   * @return {@code false} if the budget is used up.
+   */
+  boolean tryAcquire(final BasePool<?> requester) {
+    if (!tryAcquire() && !(reclaim(requester) && tryAcquire())) {
+      refused(requester);
+      return false;
+    }
+    if (parent != null && !parent.tryAcquire(requester)) {
+      used.decrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  void release() {
+    used.decrementAndGet();
+    wake();
+    if (parent != null) {
+      parent.release();
+    }
+  }
+
+  /**
+   * @return {@code true} if a connection could be opened now, possibly after another pool has
+   *     closed an idle one.
+   */
+  boolean hasRoom(final BasePool<?> requester) {
+    if (used.get() >= limit && !reclaim(requester)) {
+      refused(requester);
+      return false;
+    }
+    return parent == null || parent.hasRoom(requester);
+  }
+
+  int getUsed() {
+    return used.get();
+  }
+
+  int getLimit() {
+    return limit;
+  }
+
+  private void refused(final BasePool<?> requester) {
+    starved.add(requester);
+    // A place given up before we were added won't have woken us
+    if (used.get() < limit) {
+      wake();
+    }
+  }
+
+  /** Signal every pool that has been refused a place to try again. */
+  private void wake() {
+    if (starved.isEmpty()) {
+      return;
+    }
+    for (final BasePool<?> pool : starved) {
+      if (!starved.remove(pool)) {
+        continue;
+      }
+      try {
+        pool.signal();
+      } catch (final RejectedExecutionException e) {
+        // Closing
+      }
+    }
+  }
+
+  private boolean tryAcquire() {
+    int used;
+    while ((used = this.used.get()) < limit) {
+      if (this.used.compareAndSet(used, used + 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean reclaim(final BasePool<?> requester) {
+    if (!fair) {
+      for (final BasePool<?> pool : pools) {
+        if (pool != requester && pool.shed()) {
+          return true;
+        }
+      }
+      return false;
+    }
+    final int share = Math.max(1, limit / Math.max(1, pools.size()));
+    if (requester.getTotal() >= share) {
+      return false;
+    }
+    final List<BasePool<?>> over = new ArrayList<>();
+    for (final BasePool<?> pool : pools) {
+      if (pool != requester && pool.getTotal() > share) {
+        over.add(pool);
+      }
+    }
+    // Take from whichever pool is furthest over its share first
+    while (!over.isEmpty()) {
+      int largest = 0;
+      for (int i = 1; i < over.size(); ++i) {
+        if (over.get(i).getTotal() > over.get(largest).getTotal()) {
+          largest = i;
+        }
+      }
+      if (over.remove(largest).shed()) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.util.PriorityQueue;
+
+/**
+ * A min-heap of pooled items ordered by the time they should next be looked at by maintenance.
+ * Maintenance only visits the items that are due instead of scanning the whole pool.
+ *
+ * <p>Entries are not removed when an item leaves the pool, callers are expected to skip stale ones
+ * as they come out.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+final class DeadlineQueue<T> {
+  private final PriorityQueue<Entry<T>> queue =
+      new PriorityQueue<>((a, b) -> Long.signum(Clock.getElapsedTime(b.deadline, a.deadline)));
+
+  /**
+   * @param val The item.
+   * @param deadline The clock time after which the item is due.
+   */
+  synchronized void add(final Pooled<T> val, final long deadline) {
+    queue.add(new Entry<>(val, deadline));
+  }
+
+  /**
+   * @param now The current clock time.
+   * @return The item with the earliest deadline if it has passed, otherwise null.
+   */
+  synchronized Pooled<T> poll(final long now) {
+    final Entry<T> head = queue.peek();
+    if (head == null || Clock.getElapsedTime(head.deadline, now) <= 0) {
+      return null;
+    }
+    queue.poll();
+    return head.val;
+  }
+
+  synchronized int size() {
+    return queue.size();
+  }
+
+  private static final class Entry<T> {
+    final Pooled<T> val;
+    final long deadline;
+
+    Entry(final Pooled<T> val, final long deadline) {
+      this.val = val;
+      this.deadline = deadline;
+    }
+  }
+}
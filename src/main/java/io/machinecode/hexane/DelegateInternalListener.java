@@ -44,6 +44,10 @@ final class DelegateInternalListener extends InternalListener {
     listener.onConnectionAcquired(Clock.getElapsedTime(start, end), Clock.getUnit());
   }
 
+  void onConnectionRejected(final int waiting, final long estimatedWait) {
+    listener.onConnectionRejected(waiting, estimatedWait, Clock.getUnit());
+  }
+
   void onConnectionReturned(final long start) {
     final long end = Clock.getCurrentTime();
     listener.onConnectionReturned(Clock.getElapsedTime(start, end), Clock.getUnit());
@@ -61,6 +65,27 @@ final class DelegateInternalListener extends InternalListener {
     listener.onConnectionLifetimeEviction();
   }
 
+  void onPoolTargetSizeChange(final int previous, final int target) {
+    listener.onPoolTargetSizeChange(previous, target);
+  }
+
+  void onConnectionLeak(final long aquired, final Throwable trace) {
+    final long end = Clock.getCurrentTime();
+    listener.onConnectionLeak(Clock.getElapsedTime(aquired, end), Clock.getUnit(), trace);
+  }
+
+  void onCircuitOpen(final int failures, final long backoff) {
+    listener.onCircuitOpen(failures, backoff, Clock.getUnit());
+  }
+
+  void onCircuitHalfOpen() {
+    listener.onCircuitHalfOpen();
+  }
+
+  void onCircuitClosed() {
+    listener.onCircuitClosed();
+  }
+
   void onStatementClosedEviction() {
     listener.onStatementClosedEviction();
   }
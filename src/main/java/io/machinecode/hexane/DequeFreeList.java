@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A free list backed by a single blocking deque. Items carry the same state as in the lock free
+ * lists so an item removed while it is leased, or while it sits in the deque, is never handed out
+ * again. Entries whose item is no longer free are dropped as they are polled.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+final class DequeFreeList<T> extends FreeList<T> {
+  private final LinkedBlockingDeque<Pooled<T>> free = new LinkedBlockingDeque<>();
+
+  @Override
+  void add(final Pooled<T> val) {
+    val.setState(Pooled.STATE_FREE);
+    this.free.add(val);
+  }
+
+  @Override
+  boolean offer(final Pooled<T> val) {
+    if (val.isExpired() || !val.compareAndSetState(Pooled.STATE_TAKEN, Pooled.STATE_FREE)) {
+      return false;
+    }
+    this.free.addFirst(val);
+    return true;
+  }
+
+  @Override
+  Pooled<T> poll() {
+    Pooled<T> val;
+    while ((val = this.free.poll()) != null) {
+      if (val.compareAndSetState(Pooled.STATE_FREE, Pooled.STATE_TAKEN)) {
+        return val;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  Pooled<T> poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (; ; ) {
+      final Pooled<T> val =
+          this.free.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      if (val == null || val.compareAndSetState(Pooled.STATE_FREE, Pooled.STATE_TAKEN)) {
+        return val;
+      }
+    }
+  }
+
+  @Override
+  boolean claim(final Pooled<T> val) {
+    if (!val.compareAndSetState(Pooled.STATE_FREE, Pooled.STATE_TAKEN)) {
+      return false;
+    }
+    this.free.remove(val);
+    return true;
+  }
+
+  @Override
+  boolean remove(final Pooled<T> val) {
+    for (; ; ) {
+      final int state = val.getState();
+      if (state == Pooled.STATE_REMOVED) {
+        return false;
+      }
+      if (val.compareAndSetState(state, Pooled.STATE_REMOVED)) {
+        this.free.remove(val);
+        return state == Pooled.STATE_FREE;
+      }
+    }
+  }
+
+  @Override
+  int size() {
+    return this.free.size();
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The set of pooled items that are not currently leased out.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+abstract class FreeList<T> {
+
+  /**
+   * Add a newly created item.
+   *
+   * @param val The item.
+   */
+  abstract void add(final Pooled<T> val);
+
+  /**
+   * Return a previously leased item.
+   *
+   * @param val The item.
+   * @return false If the item was removed or expired while it was leased.
+   */
+  abstract boolean offer(final Pooled<T> val);
+
+  /** @return A free item or null if there are none available. */
+  abstract Pooled<T> poll();
+
+  /**
+   * Wait up to {@code timeout} for a free item.
+   *
+   * @param timeout The maximum time to wait.
+   * @param unit The unit of the {@code timeout} parameter.
+   * @return A free item or null if none became available in time.
+   */
+  abstract Pooled<T> poll(final long timeout, final TimeUnit unit) throws InterruptedException;
+
+  /**
+   * Lease a specific item if it is free.
+   *
+   * @param val The item.
+   * @return true If the item was free and is now leased to the caller.
+   */
+  abstract boolean claim(final Pooled<T> val);
+
+  /**
+   * Stop tracking an item.
+   *
+   * @param val The item.
+   * @return true If the item was free when it was removed.
+   */
+  abstract boolean remove(final Pooled<T> val);
+
+  abstract int size();
+
+  /**
+   * @param count The number of free items to look for.
+   * @return true If there are fewer than {@code count} free items.
+   */
+  boolean isBelow(final int count) {
+    return size() < count;
+  }
+}
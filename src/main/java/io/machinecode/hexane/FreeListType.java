@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+/**
+ * The structure used to hold connections that are not currently leased out.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public enum FreeListType {
+  /** A single blocking deque guarded by one lock. The default. */
+  DEQUE,
+  /** Connections are leased and returned with a CAS on the connection itself. */
+  LOCK_FREE,
+  /**
+   * As {@link #LOCK_FREE} but connections are split into stripes. Each thread searches its own
+   * stripe first and steals from the others when it is empty.
+   */
+  STRIPED;
+
+  static <T> FreeList<T> create(final FreeListType type, final Config config) {
+    switch (type) {
+      case LOCK_FREE:
+        return new LockFreeFreeList<>(config.isFairHandOff());
+      case STRIPED:
+        return new StripedFreeList<>(config.getFreeListStripes(), config.isFairHandOff());
+      case DEQUE:
+      default:
+        return new DequeFreeList<>();
+    }
+  }
+}
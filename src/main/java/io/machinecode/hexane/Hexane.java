@@ -29,5 +29,19 @@ public final class Hexane {
     return new Config.Builder();
   }
 
+  /**
+   * @return The settings of a partition to be added to a configuration builder
+   */
+  public static Config.Partition partition() {
+    return new Config.Partition();
+  }
+
+  /**
+   * @return A builder for state shared by many pools
+   */
+  public static HexaneRegistry.Builder registry() {
+    return new HexaneRegistry.Builder();
+  }
+
   private Hexane() {}
 }
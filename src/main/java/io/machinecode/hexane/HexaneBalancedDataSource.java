@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLNonTransientException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Spreads connections over a pool for each of a set of interchangeable database hosts.
+ *
+ * <p>Each connection comes from the backend with the best ratio of its weight to its current
+ * load, where the load is the number of connections it has leased scaled by how slowly it has been
+ * opening and validating connections recently and by its recent error rate. The latency and error
+ * rate are sampled each time the backends are checked, only the number leased is read per lease.
+ *
+ * <p>A backend whose error rate reaches {@link Config.Builder#setUnhealthyErrorPercent(int)} is
+ * drained. It is passed over for new leases while any other backend is healthy and its idle
+ * connections are closed one at a time. The error rate decays with the half life set by {@link
+ * Config.Builder#setHealthHalfLife(int, java.util.concurrent.TimeUnit)} so a drained backend is
+ * used again once it has had time to recover.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public final class HexaneBalancedDataSource implements DataSource, AutoCloseable {
+  private final Config shared;
+  private final Map<String, Backend> backends = new LinkedHashMap<>();
+  private final List<Backend> list = new ArrayList<>();
+  private volatile ScheduledFuture<?> checker;
+
+  HexaneBalancedDataSource(final Config shared) {
+    this.shared = shared;
+  }
+
+  void add(final String name, final HexaneDataSource dataSource, final int weight) {
+    final Backend backend = new Backend(dataSource, weight);
+    this.backends.put(name, backend);
+    this.list.add(backend);
+  }
+
+  /** Start draining and restoring backends as their health changes. */
+  void start() {
+    final long interval = Math.max(1, shared.getHealthHalfLife() >> PoolHealth.SMOOTHING);
+    this.checker =
+        shared
+            .getHousekeepingExecutor()
+            .scheduleWithFixedDelay(this::check, interval, interval, Clock.getUnit());
+  }
+
+  /**
+   * @param name The name the backend was added with.
+   * @return The backend or {@code null} if there is no backend with that name.
+   */
+  public HexaneDataSource getDataSource(final String name) {
+    final Backend backend = backends.get(name);
+    return backend == null ? null : backend.dataSource;
+  }
+
+  /** @return The names of every backend. */
+  public Set<String> getBackendNames() {
+    return Collections.unmodifiableSet(backends.keySet());
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    final Backend backend = select();
+    if (backend == null) {
+      throw new SQLNonTransientException(Msg.POOL_IS_CLOSED);
+    }
+    return backend.dataSource.getConnection();
+  }
+
+  @Override
+  public Connection getConnection(final String user, final String password) throws SQLException {
+    final Backend backend = select();
+    if (backend == null) {
+      throw new SQLNonTransientException(Msg.POOL_IS_CLOSED);
+    }
+    return backend.dataSource.getConnection(user, password);
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return list.get(0).dataSource.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(final PrintWriter writer) throws SQLException {
+    for (final Backend it : list) {
+      it.dataSource.setLogWriter(writer);
+    }
+  }
+
+  @Override
+  public void setLoginTimeout(final int timeout) throws SQLException {
+    for (final Backend it : list) {
+      it.dataSource.setLoginTimeout(timeout);
+    }
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return list.get(0).dataSource.getLoginTimeout();
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    return list.get(0).dataSource.getParentLogger();
+  }
+
+  @Override
+  public <T> T unwrap(final Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    return list.get(0).dataSource.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || list.get(0).dataSource.isWrapperFor(iface);
+  }
+
+  @Override
+  public void close() throws SQLException {
+    final ScheduledFuture<?> checker = this.checker;
+    if (checker != null) {
+      checker.cancel(false);
+    }
+    SQLException exception = null;
+    for (final Backend it : list) {
+      exception = Util.close(it.dataSource, exception);
+    }
+    exception = shared.closeExecutors(exception);
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  /** @return The backend to acquire from or null if every backend is closed. */
+  Backend select() {
+    Backend best = null, fallback = null;
+    double bestScore = -1, fallbackScore = -1;
+    for (final Backend it : list) {
+      final HexanePool pool = it.dataSource.pool;
+      if (pool.isClosed()) {
+        continue;
+      }
+      final double score = it.score();
+      if (pool.isDraining()) {
+        if (score > fallbackScore) {
+          fallback = it;
+          fallbackScore = score;
+        }
+      } else if (score > bestScore) {
+        best = it;
+        bestScore = score;
+      }
+    }
+    // Draining backends are better than nothing
+    return best == null ? fallback : best;
+  }
+
+  /**
+   * Drain backends that have become unhealthy, restore those that have recovered and update how
+   * much load each can take.
+   */
+  void check() {
+    final double threshold = shared.getUnhealthyErrorPercent() / 100.0;
+    for (final Backend it : list) {
+      final HexanePool pool = it.dataSource.pool;
+      if (pool.isClosed()) {
+        continue;
+      }
+      final double errorRate = it.update();
+      final boolean unhealthy = errorRate >= threshold;
+      if (unhealthy) {
+        pool.setDraining(true);
+        // One at a time so capacity moves to the other backends gradually
+        pool.shed();
+      } else if (pool.isDraining()) {
+        pool.setDraining(false);
+        pool.signal();
+      }
+    }
+  }
+
+  static final class Backend {
+    final HexaneDataSource dataSource;
+    final int weight;
+    // The weight scaled by latency and errors as of the last check, read without locking per lease
+    private volatile double capacity;
+
+    Backend(final HexaneDataSource dataSource, final int weight) {
+      this.dataSource = dataSource;
+      this.weight = weight;
+      update();
+    }
+
+    /**
+     * Sample the pool's health.
+     *
+     * @return The error rate it was sampled with.
+     */
+    double update() {
+      final PoolHealth health = dataSource.pool.getHealth();
+      final long latency =
+          Math.max(1, health.getCreationLatency() + health.getValidationLatency());
+      final double errorRate = health.getErrorRate();
+      this.capacity = weight * (1 - errorRate) / latency;
+      return errorRate;
+    }
+
+    /** @return How much more load the backend should take, higher is better. */
+    double score() {
+      final HexanePool pool = dataSource.pool;
+      final int leased = Math.max(0, pool.getTotal() - pool.getFree());
+      return capacity / (leased + 1);
+    }
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Thrown instead of waiting for a connection when no connection is free and the pool has stopped
+ * trying to open new ones because the database keeps failing.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public class HexaneCircuitOpenException extends SQLTransientConnectionException {
+  private static final long serialVersionUID = 1L;
+
+  HexaneCircuitOpenException(final String reason) {
+    super(reason);
+  }
+}
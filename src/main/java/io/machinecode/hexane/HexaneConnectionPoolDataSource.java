@@ -19,6 +19,7 @@ package io.machinecode.hexane;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.CompletableFuture;
 import javax.sql.ConnectionPoolDataSource;
 import javax.sql.PooledConnection;
 
@@ -46,6 +47,46 @@ public final class HexaneConnectionPoolDataSource
     return new HexanePooledConnection(pool.getConfig(), val, defaults);
   }
 
+  /**
+   * Acquire a pooled connection without blocking the calling thread.
+   *
+   * <p>If none are free the returned future is completed in the order callers started waiting,
+   * on the executor set with {@link Config.Builder#setCompletionExecutor} so callbacks never run
+   * inside the pool. It fails with a {@link java.sql.SQLTransientConnectionException} once the
+   * connection timeout has passed, or straight away if no connection timeout is set.
+   *
+   * @return A future that completes with the pooled connection.
+   */
+  public CompletableFuture<PooledConnection> getPooledConnectionAsync() {
+    return pool.takeAsync(
+        PriorityGate.DEFAULT, val -> new HexanePooledConnection(pool.getConfig(), val, defaults));
+  }
+
+  /**
+   * Acquire a pooled connection as a caller from a priority class configured with {@link
+   * Config.Builder#setPriorityClass(int, int, int)}. Callers from higher classes are served first.
+   * {@link #getPooledConnection()} acquires from class {@code 0}.
+   *
+   * @param priority The priority class of the caller.
+   * @return The pooled connection.
+   * @throws SQLException If the class has not been configured or the connection timeout passes.
+   */
+  public PooledConnection getPooledConnection(final int priority) throws SQLException {
+    final Pooled<PooledConnection> val = pool.take(priority);
+    return new HexanePooledConnection(pool.getConfig(), val, defaults);
+  }
+
+  /**
+   * As {@link #getPooledConnectionAsync()} for a caller from a priority class.
+   *
+   * @param priority The priority class of the caller.
+   * @return A future that completes with the pooled connection.
+   */
+  public CompletableFuture<PooledConnection> getPooledConnectionAsync(final int priority) {
+    return pool.takeAsync(
+        priority, val -> new HexanePooledConnection(pool.getConfig(), val, defaults));
+  }
+
   @Override
   public PooledConnection getPooledConnection(final String user, final String password)
       throws SQLException {
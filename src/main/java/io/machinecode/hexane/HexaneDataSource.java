@@ -18,6 +18,8 @@ package io.machinecode.hexane;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.CompletableFuture;
 import javax.sql.DataSource;
 
 /**
@@ -28,10 +30,20 @@ import javax.sql.DataSource;
 public final class HexaneDataSource extends BaseDataSource<Connection, HexanePool, DataSource>
     implements DataSource, AutoCloseable {
   private final Defaults defaults;
+  private final KeyedPool keyed;
 
   HexaneDataSource(final HexanePool pool, final DataSource dataSource, final Defaults defaults) {
+    this(pool, dataSource, defaults, null);
+  }
+
+  HexaneDataSource(
+      final HexanePool pool,
+      final DataSource dataSource,
+      final Defaults defaults,
+      final KeyedPool keyed) {
     super(pool, dataSource);
     this.defaults = defaults;
+    this.keyed = keyed;
   }
 
   @Override
@@ -40,6 +52,74 @@ public final class HexaneDataSource extends BaseDataSource<Connection, HexanePoo
     return new HexaneConnection(pool.getConfig(), val, defaults);
   }
 
+  /**
+   * Acquire a connection without blocking the calling thread.
+   *
+   * <p>If none are free the returned future is completed in the order callers started waiting,
+   * on the executor set with {@link Config.Builder#setCompletionExecutor} so callbacks never run
+   * inside the pool. It fails with a {@link java.sql.SQLTransientConnectionException} once the
+   * connection timeout has passed, or straight away if no connection timeout is set.
+   *
+   * @return A future that completes with the connection.
+   */
+  public CompletableFuture<Connection> getConnectionAsync() {
+    return pool.takeAsync(
+        PriorityGate.DEFAULT, val -> new HexaneConnection(pool.getConfig(), val, defaults));
+  }
+
+  /**
+   * Acquire a connection as a caller from a priority class configured with {@link
+   * Config.Builder#setPriorityClass(int, int, int)}. Callers from higher classes are served first.
+   * {@link #getConnection()} acquires from class {@code 0}.
+   *
+   * @param priority The priority class of the caller.
+   * @return The connection.
+   * @throws SQLException If the class has not been configured or the connection timeout passes.
+   */
+  public Connection getConnection(final int priority) throws SQLException {
+    final Pooled<Connection> val = pool.take(priority);
+    return new HexaneConnection(pool.getConfig(), val, defaults);
+  }
+
+  /**
+   * As {@link #getConnectionAsync()} for a caller from a priority class.
+   *
+   * @param priority The priority class of the caller.
+   * @return A future that completes with the connection.
+   */
+  public CompletableFuture<Connection> getConnectionAsync(final int priority) {
+    return pool.takeAsync(priority, val -> new HexaneConnection(pool.getConfig(), val, defaults));
+  }
+
+  /**
+   * Acquire a connection from a pool kept for these credentials if {@link
+   * Config.Builder#setKeyedMaxPoolSize(int)} has been set.
+   */
+  @Override
+  public Connection getConnection(final String user, final String password) throws SQLException {
+    if (keyed == null) {
+      throw new SQLFeatureNotSupportedException();
+    }
+    final Pooled<Connection> val = keyed.take(user, password);
+    return new HexaneConnection(keyed.getConfig(), val, defaults);
+  }
+
+  @Override
+  public void close() throws SQLException {
+    final SQLException exception = Util.close(keyed, null);
+    try {
+      super.close();
+    } catch (final SQLException e) {
+      if (exception != null) {
+        e.addSuppressed(exception);
+      }
+      throw e;
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
   @Override
   public <T> T unwrap(final Class<T> iface) throws SQLException {
     try {
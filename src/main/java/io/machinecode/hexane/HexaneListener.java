@@ -51,6 +51,17 @@ interface HexaneListener {
    */
   default void onConnectionAcquired(final long elapsed, final TimeUnit unit) {}
 
+  /**
+   * Called when a caller is turned away without waiting because too many callers are already
+   * waiting for a connection or the wait is estimated to be too long.
+   *
+   * @param waiting The number of callers that were already waiting.
+   * @param estimatedWait How long the caller was estimated to have to wait.
+   * @param unit The unit of the {@code estimatedWait} parameter.
+   */
+  default void onConnectionRejected(
+      final int waiting, final long estimatedWait, final TimeUnit unit) {}
+
   /**
    * Called when a previously acquired connection is returned to the pool.
    *
@@ -68,6 +79,40 @@ interface HexaneListener {
   /** Called when a connection that has exceeded its maximum lifespan is removed from the pool. */
   default void onConnectionLifetimeEviction() {}
 
+  /**
+   * Called when adaptive sizing changes the number of connections the pool tries to keep open.
+   *
+   * @param previous The previous target.
+   * @param target The new target.
+   */
+  default void onPoolTargetSizeChange(final int previous, final int target) {}
+
+  /**
+   * Called when a connection has been leased for longer than the leak detection threshold. Called
+   * at most once per lease.
+   *
+   * @param elapsed How long the connection has been leased.
+   * @param unit The unit of the {@code elapsed} parameter.
+   * @param trace Where the connection was acquired if the acquire was sampled, otherwise where the
+   *     thread that acquired it is now.
+   */
+  default void onConnectionLeak(final long elapsed, final TimeUnit unit, final Throwable trace) {}
+
+  /**
+   * Called when the pool stops opening connections after repeated failures.
+   *
+   * @param failures The number of consecutive failures.
+   * @param backoff How long the pool will wait before trying again.
+   * @param unit The unit of the {@code backoff} parameter.
+   */
+  default void onCircuitOpen(final int failures, final long backoff, final TimeUnit unit) {}
+
+  /** Called when the pool makes a single attempt to open a connection after backing off. */
+  default void onCircuitHalfOpen() {}
+
+  /** Called when the pool opens a connection after having stopped trying. */
+  default void onCircuitClosed() {}
+
   /** Called when a connection is closed due to the datasource closing. */
   default void onDataSourceClosedEviction() {}
 
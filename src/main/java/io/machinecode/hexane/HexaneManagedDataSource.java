@@ -19,6 +19,7 @@ package io.machinecode.hexane;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.CompletableFuture;
 import javax.sql.ConnectionPoolDataSource;
 import javax.sql.DataSource;
 import javax.sql.PooledConnection;
@@ -33,11 +34,21 @@ public final class HexaneManagedDataSource
     extends BaseDataSource<Connection, HexanePool, DataSource>
     implements ConnectionPoolDataSource, AutoCloseable {
   private final Defaults defaults;
+  private final KeyedPool keyed;
 
   HexaneManagedDataSource(
       final HexanePool pool, final DataSource dataSource, final Defaults defaults) {
+    this(pool, dataSource, defaults, null);
+  }
+
+  HexaneManagedDataSource(
+      final HexanePool pool,
+      final DataSource dataSource,
+      final Defaults defaults,
+      final KeyedPool keyed) {
     super(pool, dataSource);
     this.defaults = defaults;
+    this.keyed = keyed;
   }
 
   @Override
@@ -46,14 +57,83 @@ public final class HexaneManagedDataSource
     return new HexaneManagedConnection(pool.getConfig(), val, defaults);
   }
 
+  /**
+   * Acquire a pooled connection without blocking the calling thread.
+   *
+   * <p>If none are free the returned future is completed in the order callers started waiting,
+   * on the executor set with {@link Config.Builder#setCompletionExecutor} so callbacks never run
+   * inside the pool. It fails with a {@link java.sql.SQLTransientConnectionException} once the
+   * connection timeout has passed, or straight away if no connection timeout is set.
+   *
+   * @return A future that completes with the pooled connection.
+   */
+  public CompletableFuture<PooledConnection> getPooledConnectionAsync() {
+    return pool.takeAsync(
+        PriorityGate.DEFAULT, val -> new HexaneManagedConnection(pool.getConfig(), val, defaults));
+  }
+
+  /**
+   * Acquire a pooled connection as a caller from a priority class configured with {@link
+   * Config.Builder#setPriorityClass(int, int, int)}. Callers from higher classes are served first.
+   * {@link #getPooledConnection()} acquires from class {@code 0}.
+   *
+   * @param priority The priority class of the caller.
+   * @return The pooled connection.
+   * @throws SQLException If the class has not been configured or the connection timeout passes.
+   */
+  public PooledConnection getPooledConnection(final int priority) throws SQLException {
+    final Pooled<Connection> val = pool.take(priority);
+    return new HexaneManagedConnection(pool.getConfig(), val, defaults);
+  }
+
+  /**
+   * As {@link #getPooledConnectionAsync()} for a caller from a priority class.
+   *
+   * @param priority The priority class of the caller.
+   * @return A future that completes with the pooled connection.
+   */
+  public CompletableFuture<PooledConnection> getPooledConnectionAsync(final int priority) {
+    return pool.takeAsync(
+        priority, val -> new HexaneManagedConnection(pool.getConfig(), val, defaults));
+  }
+
+  /**
+   * Acquire a pooled connection from a pool kept for these credentials if {@link
+   * Config.Builder#setKeyedMaxPoolSize(int)} has been set.
+   */
   @Override
   public PooledConnection getPooledConnection(final String user, final String password)
       throws SQLException {
-    throw new SQLFeatureNotSupportedException();
+    if (keyed == null) {
+      throw new SQLFeatureNotSupportedException();
+    }
+    final Pooled<Connection> val = keyed.take(user, password);
+    return new HexaneManagedConnection(keyed.getConfig(), val, defaults);
   }
 
   @Override
   public Connection getConnection() throws SQLException {
     return getPooledConnection().getConnection();
   }
+
+  @Override
+  public Connection getConnection(final String user, final String password) throws SQLException {
+    return getPooledConnection(user, password).getConnection();
+  }
+
+  @Override
+  public void close() throws SQLException {
+    final SQLException exception = Util.close(keyed, null);
+    try {
+      super.close();
+    } catch (final SQLException e) {
+      if (exception != null) {
+        e.addSuppressed(exception);
+      }
+      throw e;
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A set of named {@link HexaneDataSource}'s that share one set of executors and one limit on the
+ * number of connections they may hold open between them.
+ *
+ * <p>Each partition has its own pool sizes, connection timeout and listener so one kind of traffic
+ * can't starve another, while idle capacity above a partition's core size can still be given up to
+ * another partition that needs it.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public final class HexanePartitionedDataSource implements AutoCloseable {
+  private final Config shared;
+  private final Map<String, HexaneDataSource> partitions = new LinkedHashMap<>();
+
+  HexanePartitionedDataSource(final Config shared) {
+    this.shared = shared;
+  }
+
+  void add(final String name, final HexaneDataSource dataSource) {
+    this.partitions.put(name, dataSource);
+  }
+
+  /**
+   * @param name The name the partition was added with.
+   * @return The partition or {@code null} if there is no partition with that name.
+   */
+  public HexaneDataSource getDataSource(final String name) {
+    return partitions.get(name);
+  }
+
+  /** @return The names of every partition. */
+  public Set<String> getPartitionNames() {
+    return Collections.unmodifiableSet(partitions.keySet());
+  }
+
+  @Override
+  public void close() throws SQLException {
+    SQLException exception = null;
+    for (final HexaneDataSource it : partitions.values()) {
+      exception = Util.close(it, exception);
+    }
+    exception = shared.closeExecutors(exception);
+    if (exception != null) {
+      throw exception;
+    }
+  }
+}
@@ -25,22 +25,35 @@ import javax.sql.DataSource;
  */
 final class HexanePool extends BasePool<Connection> {
   private final DataSource dataSource;
+  private final String user;
+  private final String password;
 
   HexanePool(final Config config, final Defaults defaults, final DataSource dataSource) {
+    this(config, defaults, dataSource, config.getUser(), config.getPassword());
+  }
+
+  /** A pool of connections opened with the given credentials rather than the configured ones. */
+  HexanePool(
+      final Config config,
+      final Defaults defaults,
+      final DataSource dataSource,
+      final String user,
+      final String password) {
     super(config, defaults, HexanePool.class);
     this.dataSource = dataSource;
-    executor.execute(task);
+    this.user = user;
+    this.password = password;
+    start();
   }
 
   @Override
   protected Connection getConnection() {
     Connection conn = null;
     try {
-      final String user = config.getUser();
       if (user == null) {
         conn = dataSource.getConnection();
       } else {
-        conn = dataSource.getConnection(user, config.getPassword());
+        conn = dataSource.getConnection(user, password);
       }
       return conn;
     } catch (final SQLException e) {
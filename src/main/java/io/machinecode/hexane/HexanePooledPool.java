@@ -41,7 +41,7 @@ final class HexanePooledPool extends BasePool<PooledConnection> {
       final Config config, final Defaults defaults, final ConnectionPoolDataSource dataSource) {
     super(config, defaults, HexanePooledPool.class);
     this.dataSource = dataSource;
-    executor.execute(task);
+    start();
   }
 
   @Override
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State shared by every pool configured with {@link Config.Builder#setRegistry(HexaneRegistry)}.
+ *
+ * <p>The pools use one scheduler for maintenance and housekeeping rather than starting threads of
+ * their own, and if a connection limit is set they draw from a single budget. The budget is fair, a
+ * pool holding fewer than an equal share of the limit can have a connection closed in a pool
+ * holding more than its share, but any capacity the other pools are not using can be used by a
+ * busy one.
+ *
+ * <p>Refilling a pool blocks while connections are opened, so the pools refill on a separate set of
+ * creation threads and the scheduler is left free for timeouts and housekeeping. The creation
+ * threads are still shared, a database that is slow to accept connections holds one up for as
+ * long as it takes to open one, and once every creation thread is held the other pools queue
+ * behind it. Give the registry as many creation threads as there are pools that must not wait on
+ * each other.
+ *
+ * <p>Only the scheduler, the creation threads the refills run on and the budget are shared. A pool
+ * with {@link Config.Builder#setCreationConcurrency(int)} above one and no creation executor of its
+ * own still starts threads of its own to open connections in parallel, as does a pool with {@link
+ * Config.Builder#setDriverThreads(int) driver threads}, and those are closed with the pool.
+ *
+ * <p>Pools using the registry should be closed before it.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public final class HexaneRegistry implements AutoCloseable {
+  private final ScheduledExecutorService scheduler;
+  private final ThreadPoolExecutor creator;
+  private final ConnectionBudget budget;
+
+  HexaneRegistry(final Builder builder) {
+    final ThreadFactory threadFactory =
+        Util.defaultIfNull(builder.threadFactory, Executors.defaultThreadFactory());
+    final ScheduledThreadPoolExecutor scheduler =
+        new ScheduledThreadPoolExecutor(builder.threads, threadFactory);
+    scheduler.setRemoveOnCancelPolicy(true);
+    this.scheduler = scheduler;
+    final int creationThreads =
+        builder.creationThreads == Config.UNSET ? builder.threads : builder.creationThreads;
+    this.creator =
+        new ThreadPoolExecutor(
+            creationThreads,
+            creationThreads,
+            1,
+            TimeUnit.MINUTES,
+            new LinkedBlockingQueue<>(),
+            threadFactory);
+    this.creator.allowCoreThreadTimeOut(true);
+    this.budget =
+        builder.maxConnections == Config.UNSET
+            ? null
+            : new ConnectionBudget(builder.maxConnections, true, null);
+  }
+
+  ScheduledExecutorService getScheduler() {
+    return scheduler;
+  }
+
+  Executor getCreationExecutor() {
+    return creator;
+  }
+
+  ConnectionBudget getBudget() {
+    return budget;
+  }
+
+  /** @return The limit on connections open across every pool or -1 if there isn't one. */
+  public int getMaxConnections() {
+    return budget == null ? Config.UNSET : budget.getLimit();
+  }
+
+  /** @return The number of connections counted against the limit. */
+  public int getOpenConnections() {
+    return budget == null ? 0 : budget.getUsed();
+  }
+
+  /** Stop the shared scheduler and creation threads. */
+  @Override
+  public void close() {
+    scheduler.shutdown();
+    creator.shutdown();
+  }
+
+  /** The settings of a registry, created with {@link Hexane#registry()}. */
+  public static final class Builder {
+    private int maxConnections = Config.UNSET;
+    private int threads = 1;
+    private int creationThreads = Config.UNSET;
+    private ThreadFactory threadFactory;
+
+    Builder() {}
+
+    public Builder setMaxConnections(final int maxConnections) {
+      if (maxConnections < 1) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.maxConnections = maxConnections;
+      return this;
+    }
+
+    public Builder setThreads(final int threads) {
+      if (threads < 1) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.threads = threads;
+      return this;
+    }
+
+    public Builder setCreationThreads(final int creationThreads) {
+      if (creationThreads < 1) {
+        throw new IllegalArgumentException(); // TODO
+      }
+      this.creationThreads = creationThreads;
+      return this;
+    }
+
+    public Builder setThreadFactory(final ThreadFactory threadFactory) {
+      this.threadFactory = threadFactory;
+      return this;
+    }
+
+    public HexaneRegistry build() {
+      return new HexaneRegistry(this);
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Routes connections between a pool for the primary database and pools for its read replicas.
+ *
+ * <p>A connection from {@link #getConnection()} is not acquired until it is first used. If {@link
+ * Connection#setReadOnly(boolean)} has been called with {@code true} by then it comes from a
+ * replica, otherwise it comes from the primary. Once acquired the connection stays where it is, so
+ * the read only flag has to be set before anything else is done with it. {@link
+ * #getReadOnlyConnection()} acquires from a replica straight away.
+ *
+ * <p>The replica with the fewest connections leased is used, falling back to the primary if the
+ * replica has no connection available in time or there are no replicas.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public final class HexaneRoutingDataSource implements DataSource, AutoCloseable {
+  private final Config shared;
+  private final HexaneDataSource primary;
+  private final List<HexaneDataSource> replicas = new ArrayList<>();
+  private final AtomicInteger next = new AtomicInteger();
+
+  HexaneRoutingDataSource(final Config shared, final HexaneDataSource primary) {
+    this.shared = shared;
+    this.primary = primary;
+  }
+
+  void add(final HexaneDataSource replica) {
+    this.replicas.add(replica);
+  }
+
+  /** @return The pool writes and transactions are sent to. */
+  public HexaneDataSource getPrimary() {
+    return primary;
+  }
+
+  /** @return The pools read only connections are sent to. */
+  public List<HexaneDataSource> getReplicas() {
+    return Collections.unmodifiableList(replicas);
+  }
+
+  /**
+   * @return A connection that is acquired from a replica if it is set to read only before it is
+   *     used, otherwise from the primary.
+   */
+  @Override
+  public Connection getConnection() throws SQLException {
+    return RoutingConnection.create(this);
+  }
+
+  /** @return A read only connection from the replica with the fewest connections leased. */
+  public Connection getReadOnlyConnection() throws SQLException {
+    final HexaneDataSource replica = select();
+    if (replica == null) {
+      return readOnly(primary.getConnection());
+    }
+    try {
+      return readOnly(replica.getConnection());
+    } catch (final SQLTransientException e) {
+      try {
+        return readOnly(primary.getConnection());
+      } catch (final SQLException ex) {
+        ex.addSuppressed(e);
+        throw ex;
+      }
+    }
+  }
+
+  /** @return A connection from the primary. */
+  public Connection getPrimaryConnection() throws SQLException {
+    return primary.getConnection();
+  }
+
+  @Override
+  public Connection getConnection(final String user, final String password) throws SQLException {
+    return primary.getConnection(user, password);
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return primary.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(final PrintWriter writer) throws SQLException {
+    primary.setLogWriter(writer);
+  }
+
+  @Override
+  public void setLoginTimeout(final int timeout) throws SQLException {
+    primary.setLoginTimeout(timeout);
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return primary.getLoginTimeout();
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    return primary.getParentLogger();
+  }
+
+  @Override
+  public <T> T unwrap(final Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    return primary.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || primary.isWrapperFor(iface);
+  }
+
+  @Override
+  public void close() throws SQLException {
+    SQLException exception = Util.close(primary, null);
+    for (final HexaneDataSource it : replicas) {
+      exception = Util.close(it, exception);
+    }
+    exception = shared.closeExecutors(exception);
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  /** @return The open replica with the fewest leased connections or null if there isn't one. */
+  HexaneDataSource select() {
+    final int size = replicas.size();
+    if (size == 0) {
+      return null;
+    }
+    // Start somewhere different each time so ties are spread out
+    final int start = Math.floorMod(next.getAndIncrement(), size);
+    HexaneDataSource ret = null;
+    int least = Integer.MAX_VALUE;
+    for (int i = 0; i < size; ++i) {
+      final HexaneDataSource it = replicas.get((start + i) % size);
+      if (it.pool.isClosed()) {
+        continue;
+      }
+      final int leased = it.pool.getTotal() - it.pool.getFree();
+      if (leased < least) {
+        ret = it;
+        least = leased;
+      }
+    }
+    return ret;
+  }
+
+  private static Connection readOnly(final Connection conn) throws SQLException {
+    try {
+      conn.setReadOnly(true);
+      return conn;
+    } catch (final SQLException e) {
+      throw Util.close(conn, e);
+    }
+  }
+}
@@ -19,6 +19,7 @@ package io.machinecode.hexane;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.CompletableFuture;
 import javax.sql.XAConnection;
 import javax.sql.XADataSource;
 
@@ -44,6 +45,45 @@ public final class HexaneXADataSource
     return new HexaneXAConnection(pool.getConfig(), val, defaults);
   }
 
+  /**
+   * Acquire a connection without blocking the calling thread.
+   *
+   * <p>If none are free the returned future is completed in the order callers started waiting,
+   * on the executor set with {@link Config.Builder#setCompletionExecutor} so callbacks never run
+   * inside the pool. It fails with a {@link java.sql.SQLTransientConnectionException} once the
+   * connection timeout has passed, or straight away if no connection timeout is set.
+   *
+   * @return A future that completes with the connection.
+   */
+  public CompletableFuture<XAConnection> getXAConnectionAsync() {
+    return pool.takeAsync(
+        PriorityGate.DEFAULT, val -> new HexaneXAConnection(pool.getConfig(), val, defaults));
+  }
+
+  /**
+   * Acquire a connection as a caller from a priority class configured with {@link
+   * Config.Builder#setPriorityClass(int, int, int)}. Callers from higher classes are served first.
+   * {@link #getXAConnection()} acquires from class {@code 0}.
+   *
+   * @param priority The priority class of the caller.
+   * @return The connection.
+   * @throws SQLException If the class has not been configured or the connection timeout passes.
+   */
+  public XAConnection getXAConnection(final int priority) throws SQLException {
+    final Pooled<XAConnection> val = pool.take(priority);
+    return new HexaneXAConnection(pool.getConfig(), val, defaults);
+  }
+
+  /**
+   * As {@link #getXAConnectionAsync()} for a caller from a priority class.
+   *
+   * @param priority The priority class of the caller.
+   * @return A future that completes with the connection.
+   */
+  public CompletableFuture<XAConnection> getXAConnectionAsync(final int priority) {
+    return pool.takeAsync(priority, val -> new HexaneXAConnection(pool.getConfig(), val, defaults));
+  }
+
   @Override
   public XAConnection getXAConnection(final String user, final String password)
       throws SQLException {
@@ -40,7 +40,7 @@ final class HexaneXAPool extends BasePool<XAConnection> {
   HexaneXAPool(final Config config, final Defaults defaults, final XADataSource dataSource) {
     super(config, defaults, HexaneXAPool.class);
     this.dataSource = dataSource;
-    executor.execute(task);
+    start();
   }
 
   @Override
@@ -30,6 +30,8 @@ class InternalListener {
 
   void onConnectionAcquired(final long start, final long end) {}
 
+  void onConnectionRejected(final int waiting, final long estimatedWait) {}
+
   void onConnectionReturned(final long start) {}
 
   void onConnectionErrorEviction() {}
@@ -38,6 +40,16 @@ class InternalListener {
 
   void onConnectionLifetimeEviction() {}
 
+  void onPoolTargetSizeChange(final int previous, final int target) {}
+
+  void onConnectionLeak(final long aquired, final Throwable trace) {}
+
+  void onCircuitOpen(final int failures, final long backoff) {}
+
+  void onCircuitHalfOpen() {}
+
+  void onCircuitClosed() {}
+
   void onStatementClosedEviction() {}
 
   void onStatementErrorEviction() {}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+
+/**
+ * A pool for each set of credentials passed to {@link DataSource#getConnection(String, String)}.
+ *
+ * <p>Every sub-pool uses the same config, so they share the executors of the pool they belong to
+ * and, if one is configured, a budget on the number of connections they may hold between them. A
+ * sub-pool that has no connections leased and hasn't been used for the keyed idle timeout is
+ * closed.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+final class KeyedPool implements AutoCloseable {
+  private final Config config;
+  private final Defaults defaults;
+  private final DataSource dataSource;
+  private final Map<Key, Entry> pools = new ConcurrentHashMap<>();
+  private final ScheduledFuture<?> sweeper;
+  private volatile boolean closed;
+
+  KeyedPool(final Config config, final Defaults defaults, final DataSource dataSource) {
+    this.config = config;
+    this.defaults = defaults;
+    this.dataSource = dataSource;
+    final long idle = config.getKeyedIdleTimeout();
+    this.sweeper =
+        idle == Config.UNSET
+            ? null
+            : config
+                .getHousekeepingExecutor()
+                .scheduleWithFixedDelay(this::sweep, idle, idle, Clock.getUnit());
+  }
+
+  Pooled<Connection> take(final String user, final String password) throws SQLException {
+    final Key key = new Key(user, password);
+    for (; ; ) {
+      if (closed) {
+        throw new SQLNonTransientException(Msg.POOL_IS_CLOSED);
+      }
+      // Only a placeholder is created under the map's lock, the pool is opened outside it so
+      // callers with other credentials aren't held up while it connects
+      final Entry entry = pools.computeIfAbsent(key, Entry::new);
+      if (!entry.enter()) {
+        // Closed as idle after we found it
+        pools.remove(key, entry);
+        continue;
+      }
+      try {
+        final HexanePool pool = entry.open(this);
+        if (pool == null || closed) {
+          // Closed while it was being opened, close may not see it once it has been removed
+          pools.remove(key, entry);
+          final SQLException exception = entry.close(null);
+          if (pool != null) {
+            pool.warn(Msg.EXCEPTION_CLOSING_CONNECTION, exception);
+          }
+          throw new SQLNonTransientException(Msg.POOL_IS_CLOSED);
+        }
+        return pool.take();
+      } finally {
+        entry.leave();
+      }
+    }
+  }
+
+  Config getConfig() {
+    return config;
+  }
+
+  HexanePool getPool(final String user, final String password) {
+    final Entry entry = pools.get(new Key(user, password));
+    return entry == null ? null : entry.pool;
+  }
+
+  int size() {
+    return pools.size();
+  }
+
+  /** Close every sub-pool that is idle. */
+  void sweep() {
+    final long now = Clock.getCurrentTime();
+    final long idle = config.getKeyedIdleTimeout();
+    final Iterator<Map.Entry<Key, Entry>> it = pools.entrySet().iterator();
+    while (it.hasNext()) {
+      final Entry entry = it.next().getValue();
+      if (Clock.getElapsedTime(entry.accessed, now) >= idle && entry.retire()) {
+        it.remove();
+        final SQLException exception = entry.close(null);
+        if (exception != null) {
+          entry.pool.warn(Msg.EXCEPTION_CLOSING_CONNECTION, exception);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() throws SQLException {
+    this.closed = true;
+    if (sweeper != null) {
+      sweeper.cancel(false);
+    }
+    SQLException exception = null;
+    final Iterator<Entry> it = pools.values().iterator();
+    while (it.hasNext()) {
+      exception = it.next().close(exception);
+      it.remove();
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  private static final class Entry {
+    private static final int RETIRED = -1;
+
+    final Key key;
+    /** Set once, under the entry's lock, by the first caller to use it. */
+    volatile HexanePool pool;
+    /** Guarded by the entry's lock. */
+    private boolean closed;
+    /** The number of callers acquiring from the pool, or {@link #RETIRED} once it is closed. */
+    final AtomicInteger active = new AtomicInteger();
+    volatile long accessed = Clock.getCurrentTime();
+
+    Entry(final Key key) {
+      this.key = key;
+    }
+
+    /**
+     * Open the pool if nobody has yet. Only callers with the same credentials wait for it.
+     *
+     * @return The pool, or {@code null} if the entry has been closed.
+     */
+    HexanePool open(final KeyedPool owner) {
+      final HexanePool pool = this.pool;
+      if (pool != null) {
+        return pool;
+      }
+      synchronized (this) {
+        if (this.pool == null && !this.closed) {
+          final HexanePool opened =
+              new HexanePool(
+                  owner.config, owner.defaults, owner.dataSource, key.user, key.password);
+          if (this.closed) {
+            // Closed by something the pool called while it was starting
+            opened.warn(Msg.EXCEPTION_CLOSING_CONNECTION, Util.close(opened, null));
+            return null;
+          }
+          this.pool = opened;
+        }
+        return this.closed ? null : this.pool;
+      }
+    }
+
+    /** Close the pool, or stop it from being opened if it hasn't been yet. */
+    synchronized SQLException close(final SQLException exception) {
+      if (this.closed) {
+        return exception;
+      }
+      this.closed = true;
+      final HexanePool pool = this.pool;
+      return pool == null ? exception : Util.close(pool, exception);
+    }
+
+    boolean enter() {
+      int active;
+      do {
+        active = this.active.get();
+        if (active == RETIRED) {
+          return false;
+        }
+      } while (!this.active.compareAndSet(active, active + 1));
+      this.accessed = Clock.getCurrentTime();
+      return true;
+    }
+
+    void leave() {
+      this.active.decrementAndGet();
+    }
+
+    /** @return {@code true} if nobody is acquiring from or leasing from the pool. */
+    boolean retire() {
+      if (!this.active.compareAndSet(0, RETIRED)) {
+        return false;
+      }
+      final HexanePool pool = this.pool;
+      if (pool != null && pool.getFree() != pool.getTotal()) {
+        this.active.set(0);
+        return false;
+      }
+      return true;
+    }
+  }
+
+  private static final class Key {
+    final String user;
+    final String password;
+
+    Key(final String user, final String password) {
+      this.user = user;
+      this.password = password;
+    }
+
+    @Override
+    public boolean equals(final Object that) {
+      if (this == that) {
+        return true;
+      }
+      if (!(that instanceof Key)) {
+        return false;
+      }
+      final Key key = (Key) that;
+      return Objects.equals(user, key.user) && Objects.equals(password, key.password);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(user, password);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Reports connections that have been leased for longer than a threshold, which usually means
+ * whoever acquired them has forgotten to close them.
+ *
+ * <p>Capturing a stack trace on every acquire is too expensive to leave on, so by default only the
+ * thread that acquired the connection is recorded and its stack is taken once the lease has passed
+ * the threshold. That shows where the thread is now rather than where it acquired the connection,
+ * which is enough to find a thread that is stuck holding one. A percentage of acquires can also be
+ * sampled to record where the connection was acquired, which finds one that has been dropped.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+final class LeakDetector {
+  private final long threshold;
+  private final int sampleRate;
+  private final InternalListener listener;
+  private final Logger log;
+
+  LeakDetector(final Config config, final Logger log) {
+    this.threshold = config.getLeakDetectionThreshold();
+    this.sampleRate = config.getLeakTraceSampleRate();
+    this.listener = config.getListener();
+    this.log = log;
+  }
+
+  long getThreshold() {
+    return threshold;
+  }
+
+  /** Record who acquired a connection, with a sample of the stack that acquired it. */
+  void onAcquired(final Pooled<?> val, final Thread owner) {
+    final Throwable trace =
+        sampleRate > 0 && ThreadLocalRandom.current().nextInt(100) < sampleRate
+            ? new Throwable(Msg.LEAK_ACQUIRED)
+            : null;
+    val.lease(owner, trace);
+  }
+
+  /** Report every connection that has passed the threshold since it was last reported. */
+  void check(final Iterable<? extends Pooled<?>> items) {
+    final long now = Clock.getCurrentTime();
+    for (final Pooled<?> val : items) {
+      final long aquired = val.getAquired();
+      if (!val.isLeased() || Clock.getElapsedTime(aquired, now) < threshold || !val.markLeaked()) {
+        continue;
+      }
+      final Throwable trace = trace(val);
+      log.warn(Msg.CONNECTION_LEAK, trace);
+      listener.onConnectionLeak(aquired, trace);
+    }
+  }
+
+  private static Throwable trace(final Pooled<?> val) {
+    final Throwable sampled = val.getTrace();
+    if (sampled != null) {
+      return sampled;
+    }
+    final Thread owner = val.getOwner();
+    if (owner == null) {
+      // Handed to an async caller, there is no thread to blame
+      final Throwable ret = new Throwable(Msg.LEAK_UNKNOWN_OWNER);
+      ret.setStackTrace(new StackTraceElement[0]);
+      return ret;
+    }
+    final Throwable ret = new Throwable(Msg.LEAK_HELD_BY + owner.getName());
+    ret.setStackTrace(owner.getStackTrace());
+    return ret;
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A free list where every live item is kept in a single copy on write list which is only modified
+ * when an item is created or discarded.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+final class LockFreeFreeList<T> extends ParkingFreeList<T> {
+  private final CopyOnWriteArrayList<Pooled<T>> items = new CopyOnWriteArrayList<>();
+
+  LockFreeFreeList() {
+    this(false);
+  }
+
+  LockFreeFreeList(final boolean fair) {
+    super(fair);
+  }
+
+  @Override
+  void addItem(final Pooled<T> val) {
+    this.items.add(val);
+  }
+
+  @Override
+  void removeItem(final Pooled<T> val) {
+    this.items.remove(val);
+  }
+
+  @Override
+  Pooled<T> poll() {
+    return poll(this.items);
+  }
+
+  @Override
+  int size() {
+    return size(this.items);
+  }
+
+  @Override
+  boolean isBelow(final int count) {
+    return count(this.items, count) < count;
+  }
+}
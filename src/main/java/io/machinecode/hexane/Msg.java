@@ -27,6 +27,18 @@ final class Msg {
       "The pooled connection threw while closing resources";
   static final String POOL_IS_CLOSED = "The pool is closed";
   static final String POOL_TIMEOUT = "No connection available";
+  static final String CIRCUIT_OPEN =
+      "No connection available and the database has failed too often to try opening one";
+  static final String CONNECTION_LEAK =
+      "A connection has been leased for longer than the leak detection threshold";
+  static final String LEAK_ACQUIRED = "The leaked connection was acquired here";
+  static final String LEAK_HELD_BY = "The leaked connection is held by ";
+  static final String LEAK_UNKNOWN_OWNER =
+      "The leaked connection was handed to an asynchronous caller";
+  static final String POOL_SATURATED = "Too many callers are already waiting for a connection";
+  static final String ROUTED_READ_ONLY =
+      "The connection was acquired read only and cannot be made writable inside a transaction";
+  static final String PREWARM_TIMEOUT = "Timed out opening the core connections";
   static final String HOLDABILITY =
       "Holdability may only be set to one of"
           + " ResultSet#CLOSE_CURSORS_AT_COMMIT"
@@ -41,6 +53,17 @@ final class Msg {
   static final String VALIDATION_TIMEOUT = "validationTimeout must be set";
   static final String MAX_POOL_SIZE = "maxCoreSize must be set";
   static final String CORE_POOL_SIZE = "corePoolSize must be set";
+  static final String PRIORITY_RESERVED =
+      "The connections reserved for priority classes must not exceed maxPoolSize";
+  static final String NO_PARTITIONS = "At least one partition must be added";
+  static final String PARTITION_CORE_POOL_SIZE =
+      "The corePoolSize of the partitions must not exceed maxPoolSize";
+  static final String NO_BACKENDS = "At least one backend must be added";
+  static final String CREATION_EXECUTOR =
+      "creationExecutor must not be the maintenance executor when creationConcurrency > 1";
+  static final String THREAD_AFFINITY =
+      "threadAffinity needs freeListType LOCK_FREE or STRIPED, it has no effect with DEQUE";
+  static final String UNKNOWN_PRIORITY = "No priority class has been configured for ";
 
   private Msg() {}
 }
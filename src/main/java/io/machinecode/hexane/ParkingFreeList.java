@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base for free lists where leasing and returning an item is a CAS on the state of the item itself
+ * rather than an operation on a shared queue. Subclasses decide where items live and the order they
+ * are searched in.
+ *
+ * <p>Threads that need to wait for an item park in a queue of waiters and are woken in arrival
+ * order when an item is returned. By default a woken waiter still has to race any thread that
+ * arrives in the meantime for the item. In fair mode a returned item is instead handed directly to
+ * the longest waiting thread without ever becoming free, so a new arrival cannot barge ahead of it.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+abstract class ParkingFreeList<T> extends FreeList<T> {
+  private static final Object CANCELLED = new Object();
+
+  private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+  private final boolean fair;
+
+  ParkingFreeList(final boolean fair) {
+    this.fair = fair;
+  }
+
+  abstract void addItem(final Pooled<T> val);
+
+  abstract void removeItem(final Pooled<T> val);
+
+  @Override
+  final void add(final Pooled<T> val) {
+    if (this.fair) {
+      val.setState(Pooled.STATE_TAKEN);
+      addItem(val);
+      if (handOff(val)) {
+        return;
+      }
+    } else {
+      addItem(val);
+    }
+    val.setState(Pooled.STATE_FREE);
+    signal();
+  }
+
+  @Override
+  final boolean offer(final Pooled<T> val) {
+    if (val.isExpired()) {
+      return false;
+    }
+    if (this.fair && val.getState() == Pooled.STATE_TAKEN && handOff(val)) {
+      return true;
+    }
+    if (val.compareAndSetState(Pooled.STATE_TAKEN, Pooled.STATE_FREE)) {
+      signal();
+      return true;
+    }
+    return val.getState() != Pooled.STATE_REMOVED;
+  }
+
+  @Override
+  final Pooled<T> poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+    Pooled<T> val;
+    if (!this.fair || this.waiters.isEmpty()) {
+      val = poll();
+      if (val != null) {
+        return val;
+      }
+    }
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    final Waiter waiter = new Waiter(Thread.currentThread());
+    this.waiters.add(waiter);
+    try {
+      for (; ; ) {
+        final Pooled<T> handed = handed(waiter);
+        if (handed != null) {
+          return handed;
+        }
+        // Checked after enqueuing so an item returned before we were visible is not missed. In
+        // fair mode only the oldest waiter looks, the rest wait for an item to be handed to them.
+        if (!this.fair || this.waiters.peek() == waiter) {
+          val = poll();
+          if (val != null) {
+            if (!this.fair || waiter.compareAndSet(null, CANCELLED)) {
+              return val;
+            }
+            // Something was handed to us as well, pass the one we found along
+            offer(val);
+            return handed(waiter);
+          }
+        }
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return this.fair ? cancel(waiter) : null;
+        }
+        LockSupport.parkNanos(this, remaining);
+        if (Thread.interrupted()) {
+          val = this.fair ? cancel(waiter) : null;
+          if (val == null) {
+            throw new InterruptedException();
+          }
+          Thread.currentThread().interrupt();
+          return val;
+        }
+      }
+    } finally {
+      this.waiters.remove(waiter);
+      // Pass on a wakeup we may have consumed while leaving
+      signal();
+    }
+  }
+
+  @Override
+  final boolean claim(final Pooled<T> val) {
+    return val.getState() == Pooled.STATE_FREE
+        && val.compareAndSetState(Pooled.STATE_FREE, Pooled.STATE_TAKEN);
+  }
+
+  @Override
+  final boolean remove(final Pooled<T> val) {
+    for (; ; ) {
+      final int state = val.getState();
+      if (state == Pooled.STATE_REMOVED) {
+        return false;
+      }
+      if (val.compareAndSetState(state, Pooled.STATE_REMOVED)) {
+        removeItem(val);
+        return state == Pooled.STATE_FREE;
+      }
+    }
+  }
+
+  static <T> Pooled<T> poll(final Iterable<Pooled<T>> items) {
+    for (final Pooled<T> val : items) {
+      if (val.getState() == Pooled.STATE_FREE
+          && val.compareAndSetState(Pooled.STATE_FREE, Pooled.STATE_TAKEN)) {
+        return val;
+      }
+    }
+    return null;
+  }
+
+  /** @return The number of free items up to {@code limit}. */
+  static <T> int count(final Iterable<Pooled<T>> items, final int limit) {
+    int ret = 0;
+    for (final Pooled<T> val : items) {
+      if (ret >= limit) {
+        break;
+      }
+      if (val.getState() == Pooled.STATE_FREE) {
+        ++ret;
+      }
+    }
+    return ret;
+  }
+
+  static <T> int size(final Iterable<Pooled<T>> items) {
+    int ret = 0;
+    for (final Pooled<T> val : items) {
+      if (val.getState() == Pooled.STATE_FREE) {
+        ++ret;
+      }
+    }
+    return ret;
+  }
+
+  private boolean handOff(final Pooled<T> val) {
+    for (; ; ) {
+      final Waiter waiter = this.waiters.poll();
+      if (waiter == null) {
+        return false;
+      }
+      if (waiter.compareAndSet(null, val)) {
+        LockSupport.unpark(waiter.thread);
+        return true;
+      }
+    }
+  }
+
+  /** @return The item handed to the waiter if it arrived before it could give up. */
+  private Pooled<T> cancel(final Waiter waiter) {
+    return waiter.compareAndSet(null, CANCELLED) ? null : handed(waiter);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Pooled<T> handed(final Waiter waiter) {
+    final Object val = waiter.get();
+    return val == null || val == CANCELLED ? null : (Pooled<T>) val;
+  }
+
+  private void signal() {
+    final Waiter waiter = this.waiters.peek();
+    if (waiter != null) {
+      LockSupport.unpark(waiter.thread);
+    }
+  }
+
+  /** A parked thread and the slot an item is handed to it through. */
+  private static final class Waiter extends AtomicReference<Object> {
+    private static final long serialVersionUID = 1L;
+
+    final Thread thread;
+
+    Waiter(final Thread thread) {
+      this.thread = thread;
+    }
+  }
+}
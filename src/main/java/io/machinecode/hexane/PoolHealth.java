@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+/**
+ * Recent measurements of how well a pool's database is responding.
+ *
+ * <p>Creation and validation latency are moving averages weighted towards recent connections and
+ * checks. The error rate is the weighted fraction of recent connection attempts, checks and leases
+ * that ended in an error, and halves every {@code halfLife} without new samples so a database that
+ * has been left alone is given another chance.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+final class PoolHealth {
+  /** The newest sample makes up 1/2^SMOOTHING of the average. */
+  static final int SMOOTHING = AdmissionController.SMOOTHING;
+
+  private final long halfLife;
+  private long creationLatency;
+  private long validationLatency;
+  private double errorRate;
+  private long updated = Clock.getCurrentTime();
+
+  /** @param halfLife The time in clock units the error rate takes to halve when idle. */
+  PoolHealth(final long halfLife) {
+    this.halfLife = halfLife;
+  }
+
+  /**
+   * @param creation The time in clock units taken to open the connection.
+   * @param validation The time in clock units taken to validate it.
+   */
+  synchronized void onSuccess(final long creation, final long validation) {
+    this.creationLatency = average(this.creationLatency, creation);
+    this.validationLatency = average(this.validationLatency, validation);
+    sample(0);
+  }
+
+  /** @param validation The time in clock units taken to check an idle connection. */
+  synchronized void onValidation(final long validation) {
+    this.validationLatency = average(this.validationLatency, validation);
+    sample(0);
+  }
+
+  synchronized void onFailure() {
+    sample(1);
+  }
+
+  synchronized long getCreationLatency() {
+    return creationLatency;
+  }
+
+  synchronized long getValidationLatency() {
+    return validationLatency;
+  }
+
+  /** @return The fraction of recent attempts that failed, between 0 and 1. */
+  synchronized double getErrorRate() {
+    decay(Clock.getCurrentTime());
+    return errorRate;
+  }
+
+  private void sample(final double value) {
+    decay(Clock.getCurrentTime());
+    this.errorRate += (value - this.errorRate) / (1 << SMOOTHING);
+  }
+
+  private void decay(final long now) {
+    final long elapsed = Clock.getElapsedTime(this.updated, now);
+    this.updated = now;
+    if (elapsed > 0 && this.halfLife > 0) {
+      this.errorRate *= Math.pow(0.5, (double) elapsed / this.halfLife);
+    }
+  }
+
+  private static long average(final long average, final long sample) {
+    return average == 0 ? sample : average + ((sample - average) >> SMOOTHING);
+  }
+}
@@ -21,11 +21,20 @@ import java.sql.SQLException;
 import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
  */
 final class Pooled<T> implements AutoCloseable {
+  static final int STATE_FREE = 0;
+  static final int STATE_TAKEN = 1;
+  static final int STATE_REMOVED = 2;
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicIntegerFieldUpdater<Pooled> STATE =
+      AtomicIntegerFieldUpdater.newUpdater(Pooled.class, "state");
+
   private final BasePool<T> pool;
   private final T value;
   private final Connection connection;
@@ -33,10 +42,18 @@ final class Pooled<T> implements AutoCloseable {
   private final Set<AutoCloseable> enlisted;
   private final StatementCache cache;
   private final long created;
+  private long expires;
   private volatile long aquired;
   private volatile long accessed;
+  private volatile long validated;
   private volatile boolean expired;
   private volatile boolean broken = false;
+  private volatile int state = STATE_TAKEN;
+  private volatile PriorityGate.Lane lane;
+  private volatile boolean leased;
+  private volatile boolean leaked;
+  private volatile Thread owner;
+  private volatile Throwable trace;
 
   Pooled(
       final BasePool<T> pool,
@@ -49,6 +66,8 @@ final class Pooled<T> implements AutoCloseable {
     this.connection = connection;
     this.close = close;
     this.created = Clock.getCurrentTime();
+    this.accessed = this.created;
+    this.validated = this.created;
     this.enlisted = Collections.newSetFromMap(new IdentityHashMap<>());
     this.cache = cache;
   }
@@ -90,6 +109,10 @@ final class Pooled<T> implements AutoCloseable {
     if (this.broken) {
       return null;
     }
+    endLease();
+    // Taken before giving it back as whoever it is handed to next sets their own
+    final PriorityGate.Lane lane = this.lane;
+    this.lane = null;
     this.accessed = Clock.getCurrentTime();
     final BooleanRef fatal = new BooleanRef(broken);
     SQLException exception = closeEnlisted(fatal);
@@ -97,20 +120,82 @@ final class Pooled<T> implements AutoCloseable {
       exception = Util.close(pool.getConfig(), exception, fatal, close);
       this.broken = true;
       pool.remove(this);
-    } else if (!this.expired) {
+    } else if (this.expired) {
+      // Evicted while leased, the pool has already let go of it
+      exception = Util.close(close, exception);
+      this.broken = true;
+      pool.closedExpired();
+    } else {
       pool.give(this);
     }
+    // After giving it back so whoever is let in next finds it free
+    pool.release(lane);
     return exception;
   }
 
+  /** Close the underlying connection of an item that has been evicted while free. */
+  SQLException destroy() {
+    return Util.close(close, null);
+  }
+
   void expire() {
     this.expired = true;
   }
 
+  boolean isExpired() {
+    return this.expired;
+  }
+
   long getAccessed() {
     return this.accessed;
   }
 
+  /** Last checked by keepalive, kept apart from {@link #getAccessed()} for idle eviction. */
+  long getValidated() {
+    return this.validated;
+  }
+
+  void setValidated(final long validated) {
+    this.validated = validated;
+  }
+
+  /** Only tracked when leak detection is enabled. */
+  void lease(final Thread owner, final Throwable trace) {
+    this.owner = owner;
+    this.trace = trace;
+    this.leaked = false;
+    this.leased = true;
+  }
+
+  void endLease() {
+    if (this.leased) {
+      this.leased = false;
+      this.owner = null;
+      this.trace = null;
+    }
+  }
+
+  boolean isLeased() {
+    return leased;
+  }
+
+  /** @return {@code true} if the lease had not already been reported as a leak. */
+  boolean markLeaked() {
+    if (this.leaked) {
+      return false;
+    }
+    this.leaked = true;
+    return true;
+  }
+
+  Thread getOwner() {
+    return owner;
+  }
+
+  Throwable getTrace() {
+    return trace;
+  }
+
   long getAquired() {
     return aquired;
   }
@@ -123,6 +208,34 @@ final class Pooled<T> implements AutoCloseable {
     return this.created;
   }
 
+  long getExpires() {
+    return expires;
+  }
+
+  void setExpires(final long expires) {
+    this.expires = expires;
+  }
+
+  int getState() {
+    return state;
+  }
+
+  void setState(final int state) {
+    this.state = state;
+  }
+
+  boolean compareAndSetState(final int expect, final int update) {
+    return STATE.compareAndSet(this, expect, update);
+  }
+
+  PriorityGate.Lane getLane() {
+    return lane;
+  }
+
+  void setLane(final PriorityGate.Lane lane) {
+    this.lane = lane;
+  }
+
   StatementCache getCache() {
     return cache;
   }
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.sql.SQLNonTransientException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Hands out permission to lease a connection to callers from each priority class.
+ *
+ * <p>A class may not lease more than its maximum, and may not lease a connection that another
+ * class has reserved but is not using. When a lease ends the permit goes to the oldest caller in
+ * the highest priority class that is allowed to take it, so lower priority callers only get
+ * connections that no higher priority caller is waiting for.
+ *
+ * <p>There are never more permits out than {@code maxPoolSize}, so a caller holding one is always
+ * served by the pool once a connection is free or can be opened.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+final class PriorityGate {
+  /** The class used by callers that don't ask for one. */
+  static final int DEFAULT = 0;
+
+  private final Lane[] lanes;
+  private final int capacity;
+  private int leased;
+
+  PriorityGate(final Config config) {
+    this.capacity = config.getMaxPoolSize();
+    final List<Lane> lanes = new ArrayList<>();
+    boolean hasDefault = false;
+    for (final PriorityClass it : config.getPriorityClasses()) {
+      lanes.add(new Lane(it.priority, it.reserved, Math.min(it.max, this.capacity)));
+      hasDefault |= it.priority == DEFAULT;
+    }
+    if (!hasDefault) {
+      lanes.add(new Lane(DEFAULT, 0, this.capacity));
+    }
+    lanes.sort((a, b) -> Integer.compare(b.priority, a.priority));
+    this.lanes = lanes.toArray(new Lane[0]);
+  }
+
+  /** @return The lane for the class or {@code null} if it is not configured. */
+  Lane lane(final int priority) {
+    for (final Lane lane : lanes) {
+      if (lane.priority == priority) {
+        return lane;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Ask for a permit. The returned future is already complete if one was available, otherwise it
+   * completes when one is handed to the caller. A caller that stops waiting must call {@link
+   * #cancel(Lane, CompletableFuture)}.
+   */
+  CompletableFuture<Void> enter(final Lane lane) {
+    final CompletableFuture<Void> ticket = new CompletableFuture<>();
+    synchronized (this) {
+      if (lane.queue.isEmpty() && isAdmissible(lane)) {
+        grant(lane);
+        ticket.complete(null);
+      } else {
+        lane.queue.add(ticket);
+      }
+    }
+    return ticket;
+  }
+
+  /**
+   * Stop waiting for a permit.
+   *
+   * @return {@code true} if the caller was removed from the queue, {@code false} if a permit was
+   *     handed to it first which the caller now holds.
+   */
+  boolean cancel(final Lane lane, final CompletableFuture<Void> ticket) {
+    synchronized (this) {
+      if (!lane.queue.remove(ticket)) {
+        return false;
+      }
+    }
+    // Our place in the queue may have been holding back callers from lower classes
+    complete(drain());
+    return true;
+  }
+
+  void release(final Lane lane) {
+    final List<CompletableFuture<Void>> granted;
+    synchronized (this) {
+      --lane.leased;
+      --this.leased;
+      granted = drain();
+    }
+    complete(granted);
+  }
+
+  /** Fail every queued caller. */
+  void close() {
+    final List<CompletableFuture<Void>> waiting = new ArrayList<>();
+    synchronized (this) {
+      for (final Lane lane : lanes) {
+        waiting.addAll(lane.queue);
+        lane.queue.clear();
+      }
+    }
+    for (final CompletableFuture<Void> ticket : waiting) {
+      ticket.completeExceptionally(new SQLNonTransientException(Msg.POOL_IS_CLOSED));
+    }
+  }
+
+  synchronized int getLeased(final Lane lane) {
+    return lane.leased;
+  }
+
+  private List<CompletableFuture<Void>> drain() {
+    synchronized (this) {
+      List<CompletableFuture<Void>> ret = null;
+      // Highest priority first, a class that is at its limit doesn't hold back the ones below it
+      for (final Lane lane : lanes) {
+        while (!lane.queue.isEmpty() && canLease(lane)) {
+          grant(lane);
+          if (ret == null) {
+            ret = new ArrayList<>();
+          }
+          ret.add(lane.queue.poll());
+        }
+      }
+      return ret;
+    }
+  }
+
+  private static void complete(final List<CompletableFuture<Void>> granted) {
+    if (granted == null) {
+      return;
+    }
+    for (final CompletableFuture<Void> ticket : granted) {
+      ticket.complete(null);
+    }
+  }
+
+  private void grant(final Lane lane) {
+    ++lane.leased;
+    ++this.leased;
+  }
+
+  private boolean isAdmissible(final Lane lane) {
+    if (!canLease(lane)) {
+      return false;
+    }
+    for (final Lane other : lanes) {
+      if (other == lane) {
+        return true;
+      }
+      if (!other.queue.isEmpty() && canLease(other)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean canLease(final Lane lane) {
+    if (lane.leased >= lane.max) {
+      return false;
+    }
+    int held = this.leased;
+    for (final Lane other : lanes) {
+      if (other != lane && other.leased < other.reserved) {
+        held += other.reserved - other.leased;
+      }
+    }
+    return held < this.capacity;
+  }
+
+  /** The state of one priority class. */
+  static final class Lane {
+    final int priority;
+    final int reserved;
+    final int max;
+    final ArrayDeque<CompletableFuture<Void>> queue = new ArrayDeque<>();
+    int leased;
+
+    Lane(final int priority, final int reserved, final int max) {
+      this.priority = priority;
+      this.reserved = reserved;
+      this.max = max;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientException;
+
+/**
+ * A connection from {@link HexaneRoutingDataSource#getConnection()} that holds off acquiring a real
+ * connection until one is needed, so whether it is read only can decide where it comes from.
+ *
+ * <p>One acquired read only may be on a replica, so making it writable gives it back and acquires
+ * from the primary on next use. Inside a transaction that would lose the work done so far, so it
+ * fails instead.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+final class RoutingConnection implements InvocationHandler {
+  private final HexaneRoutingDataSource dataSource;
+  private Connection delegate;
+  private boolean readOnly;
+  private boolean closed;
+
+  private RoutingConnection(final HexaneRoutingDataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  static Connection create(final HexaneRoutingDataSource dataSource) {
+    return Connection.class.cast(
+        Proxy.newProxyInstance(
+            RoutingConnection.class.getClassLoader(),
+            new Class<?>[] {Connection.class},
+            new RoutingConnection(dataSource)));
+  }
+
+  @Override
+  public Object invoke(final Object proxy, final Method method, final Object[] args)
+      throws Throwable {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return RoutingConnection.class.getSimpleName() + "[" + delegate + "]";
+      case "isClosed":
+        return closed;
+      case "close":
+        if (!closed) {
+          closed = true;
+          if (delegate != null) {
+            delegate.close();
+          }
+        }
+        return null;
+      case "setReadOnly":
+        if (closed) {
+          break;
+        }
+        if (delegate == null) {
+          readOnly = (Boolean) args[0];
+          return null;
+        }
+        if (readOnly && !(Boolean) args[0]) {
+          if (!delegate.getAutoCommit()) {
+            throw new SQLNonTransientException(Msg.ROUTED_READ_ONLY);
+          }
+          final Connection replica = delegate;
+          delegate = null;
+          readOnly = false;
+          replica.close();
+          return null;
+        }
+        break;
+      case "isReadOnly":
+        if (delegate == null && !closed) {
+          return readOnly;
+        }
+        break;
+      case "isValid":
+        if (delegate == null && !closed) {
+          return true;
+        }
+        break;
+      default:
+        break;
+    }
+    if (closed) {
+      throw new SQLNonTransientException(Msg.CONNECTION_CLOSED);
+    }
+    if (delegate == null) {
+      delegate =
+          readOnly ? dataSource.getReadOnlyConnection() : dataSource.getPrimaryConnection();
+    }
+    try {
+      return method.invoke(delegate, args);
+    } catch (final InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  Connection getDelegate() {
+    return delegate;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Moves the number of connections the pool keeps open between {@code corePoolSize} and {@code
+ * maxPoolSize} based on how busy it has been.
+ *
+ * <p>By Little's law the total time connections spent leased over an interval, divided by the
+ * length of the interval, is the average number of connections in use. The same holds for the
+ * time callers spent waiting and the average number of callers waiting. The target is their sum
+ * plus some headroom. Growth only closes part of the gap each interval, and the target only shrinks
+ * once demand has fallen well below it, so it doesn't flap around a boundary.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+final class SizingController {
+  /** Percentage added on top of the measured demand. */
+  static final int HEADROOM = 20;
+  /** Percentage demand has to fall below the target before it shrinks. */
+  static final int HYSTERESIS = 25;
+
+  private final int min;
+  private final int max;
+  private final long interval;
+  private final InternalListener listener;
+  private final LongAdder leased = new LongAdder();
+  private final LongAdder waited = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private volatile int target;
+  private long windowStart;
+
+  SizingController(final Config config, final long now) {
+    this.min = config.getCorePoolSize();
+    this.max = config.getMaxPoolSize();
+    this.interval = config.getAdaptiveSizingInterval();
+    this.listener = config.getListener();
+    this.target = this.min;
+    this.windowStart = now;
+  }
+
+  void onConnectionAcquired(final long start, final long end) {
+    waited.add(Clock.getElapsedTime(start, end));
+  }
+
+  void onConnectionReturned(final long start, final long end) {
+    leased.add(Clock.getElapsedTime(start, end));
+  }
+
+  void onConnectionTimeout(final long start, final long end) {
+    waited.add(Clock.getElapsedTime(start, end));
+    timeouts.increment();
+  }
+
+  int getTarget() {
+    return target;
+  }
+
+  /**
+   * Recalculate the target if an interval has passed since it was last calculated.
+   *
+   * @param now The current clock time.
+   * @return The target pool size.
+   */
+  synchronized int evaluate(final long now) {
+    final long elapsed = Clock.getElapsedTime(windowStart, now);
+    if (elapsed < interval || elapsed <= 0) {
+      return target;
+    }
+    this.windowStart = now;
+    final long busy = leased.sumThenReset() + waited.sumThenReset();
+    final long timeouts = this.timeouts.sumThenReset();
+    final int previous = this.target;
+    final int demand = (int) Math.min(max, ceil(busy * (100 + HEADROOM), elapsed * 100));
+    int next = previous;
+    if (demand > previous) {
+      next = previous + (int) ceil(demand - previous, 2);
+    } else if (timeouts > 0) {
+      next = previous + 1;
+    } else if (demand * 100L < previous * (100L - HYSTERESIS)) {
+      next = previous - 1;
+    }
+    next = Math.max(min, Math.min(max, next));
+    if (next != previous) {
+      this.target = next;
+      listener.onPoolTargetSizeChange(previous, next);
+    }
+    return next;
+  }
+
+  private static long ceil(final long a, final long b) {
+    return (a + b - 1) / b;
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A free list where items are spread across a number of stripes. A thread always starts searching
+ * from the same stripe and will only look in the others when its own has nothing free, which keeps
+ * threads from all racing for the same few items.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+final class StripedFreeList<T> extends ParkingFreeList<T> {
+  private final CopyOnWriteArrayList<Pooled<T>>[] stripes;
+
+  StripedFreeList(final int stripes) {
+    this(stripes, false);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  StripedFreeList(final int stripes, final boolean fair) {
+    super(fair);
+    if (stripes < 1) {
+      throw new IllegalArgumentException();
+    }
+    this.stripes = new CopyOnWriteArrayList[stripes];
+    for (int i = 0; i < stripes; ++i) {
+      this.stripes[i] = new CopyOnWriteArrayList<>();
+    }
+  }
+
+  @Override
+  void addItem(final Pooled<T> val) {
+    CopyOnWriteArrayList<Pooled<T>> smallest = this.stripes[0];
+    for (final CopyOnWriteArrayList<Pooled<T>> stripe : this.stripes) {
+      if (stripe.size() < smallest.size()) {
+        smallest = stripe;
+      }
+    }
+    smallest.add(val);
+  }
+
+  @Override
+  void removeItem(final Pooled<T> val) {
+    for (final CopyOnWriteArrayList<Pooled<T>> stripe : this.stripes) {
+      if (stripe.remove(val)) {
+        return;
+      }
+    }
+  }
+
+  @Override
+  Pooled<T> poll() {
+    final int length = this.stripes.length;
+    final int home = home(length);
+    for (int i = 0; i < length; ++i) {
+      final Pooled<T> val = poll(this.stripes[(home + i) % length]);
+      if (val != null) {
+        return val;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  int size() {
+    int ret = 0;
+    for (final CopyOnWriteArrayList<Pooled<T>> stripe : this.stripes) {
+      ret += size(stripe);
+    }
+    return ret;
+  }
+
+  @Override
+  boolean isBelow(final int count) {
+    int ret = 0;
+    for (final CopyOnWriteArrayList<Pooled<T>> stripe : this.stripes) {
+      ret += count(stripe, count - ret);
+      if (ret >= count) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  int getStripes() {
+    return this.stripes.length;
+  }
+
+  static int home(final int length) {
+    return (int) (Thread.currentThread().getId() % length);
+  }
+}
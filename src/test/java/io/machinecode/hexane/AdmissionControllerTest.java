@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public class AdmissionControllerTest extends Assert {
+
+  private HexaneListener listener;
+
+  @Before
+  public void setUp() throws Exception {
+    FixedClock.setTime(0);
+    Clock.INSTANCE = new FixedClock();
+    listener = mock(HexaneListener.class);
+  }
+
+  private AdmissionController admission(final Config.Builder builder) {
+    return new AdmissionController(
+        builder
+            .setMaintenanceExecutor(Runnable::run)
+            .setCorePoolSize(2)
+            .setMaxPoolSize(4)
+            .setListener(listener)
+            .getConfig());
+  }
+
+  @Test
+  public void maxWaiters() throws Exception {
+    final AdmissionController admission = admission(Hexane.builder().setMaxWaiters(2));
+
+    assertTrue(admission.enter());
+    assertTrue(admission.enter());
+    assertFalse(admission.enter());
+    assertEquals(2, admission.getWaiting());
+    verify(listener).onConnectionRejected(2, 0, Clock.getUnit());
+
+    admission.leave();
+    assertTrue(admission.enter());
+  }
+
+  @Test
+  public void noWaiters() throws Exception {
+    final AdmissionController admission = admission(Hexane.builder().setMaxWaiters(0));
+
+    assertFalse(admission.enter());
+    assertEquals(0, admission.getWaiting());
+  }
+
+  @Test
+  public void maxEstimatedWait() throws Exception {
+    final AdmissionController admission =
+        admission(Hexane.builder().setMaxEstimatedWait(100, Clock.getUnit()));
+
+    // Nothing is known about lease times yet
+    for (int i = 0; i < 10; ++i) {
+      assertTrue(admission.enter());
+    }
+    for (int i = 0; i < 10; ++i) {
+      admission.leave();
+    }
+
+    admission.onConnectionReturned(0, 100);
+    // 4 waiters on 4 connections each holding them for 100
+    assertEquals(100, admission.estimateWait(4));
+    for (int i = 0; i < 4; ++i) {
+      assertTrue(admission.enter());
+    }
+    verify(listener, never()).onConnectionRejected(anyInt(), anyLong(), any());
+    assertFalse(admission.enter());
+    verify(listener).onConnectionRejected(4, 125, Clock.getUnit());
+  }
+
+  @Test
+  public void leaseAverageFollowsRecentLeases() throws Exception {
+    final AdmissionController admission =
+        admission(Hexane.builder().setMaxEstimatedWait(100, Clock.getUnit()));
+
+    admission.onConnectionReturned(0, 800);
+    assertEquals(800, admission.estimateWait(4));
+    for (int i = 0; i < 50; ++i) {
+      admission.onConnectionReturned(0, 80);
+    }
+    assertEquals(80, admission.estimateWait(4), 1);
+  }
+}
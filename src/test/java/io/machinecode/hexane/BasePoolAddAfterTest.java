@@ -36,7 +36,7 @@ public class BasePoolAddAfterTest extends Assert {
 
   AtomicInteger val = new AtomicInteger();
   BasePool<Integer> pool;
-  volatile Runnable task;
+  volatile Runnable task = () -> {};
 
   @Before
   public void setUp() throws Exception {
@@ -43,6 +43,7 @@ public class BasePoolAddBeforeTest extends Assert {
     final Config config =
         Hexane.builder()
             .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
             .setCorePoolSize(2)
             .setMaxPoolSize(4)
             .getConfig();
@@ -16,21 +16,40 @@
  */
 package io.machinecode.hexane;
 
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLNonTransientException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 /**
  * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
@@ -52,6 +71,7 @@ public class BasePoolTest extends Assert {
     config =
         Hexane.builder()
             .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
             .setCorePoolSize(2)
             .setMaxPoolSize(4)
             .setConnectionTimeout(10, TimeUnit.SECONDS)
@@ -159,131 +179,1708 @@ public class BasePoolTest extends Assert {
     assertEquals(2, pool.getFree());
   }
 
+  @Test
+  public void lifetimeClosesWhenReturned() throws Exception {
+    pool.refill();
+    final Pooled<Connection> a = pool.take();
+
+    FixedClock.setTime(201);
+    pool.refill();
+
+    verify(closer, times(1)).close();
+
+    a.close(false);
+
+    verify(closer, times(2)).close();
+    assertEquals(2, pool.getTotal());
+    assertEquals(2, pool.getFree());
+  }
+
+  @Test
+  public void idleReusedIsNotEvicted() throws Exception {
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setEvictionBatchSize(3)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(4)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .setIdleTimeout(10, Clock.getUnit())
+            .getConfig();
+    pool = create(config);
+    pool.refill();
+    final Pooled<Connection> a = pool.take();
+    final Pooled<Connection> b = pool.take();
+    final Pooled<Connection> c = pool.take();
+    a.close(false);
+    b.close(false);
+
+    FixedClock.setTime(8);
+    c.close(false);
+
+    FixedClock.setTime(11);
+    pool.refill();
+
+    assertEquals(1, pool.getTotal());
+    assertSame(c, pool.take());
+  }
+
+  @Test
+  public void lifetimeJitter() throws Exception {
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setEvictionBatchSize(4)
+            .setCorePoolSize(4)
+            .setMaxPoolSize(4)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .setLifetimeTimeout(200, Clock.getUnit())
+            .setLifetimeJitterPercent(50)
+            .getConfig();
+    final AtomicInteger evicted = new AtomicInteger();
+    doAnswer(
+            invocation -> {
+              evicted.incrementAndGet();
+              return null;
+            })
+        .when(closer)
+        .close();
+    pool = create(config);
+    pool.refill();
+
+    FixedClock.setTime(100);
+    pool.refill();
+
+    assertEquals(0, evicted.get());
+
+    FixedClock.setTime(201);
+    pool.refill();
+
+    assertEquals(4, evicted.get());
+    assertEquals(4, pool.getTotal());
+  }
+
+  @Test
+  public void lifetimeReplaceWindow() throws Exception {
+    pool = create(replacePool());
+    pool.refill();
+    final Pooled<Connection> a = pool.take();
+
+    FixedClock.setTime(149);
+    pool.refill();
+
+    verify(closer, times(0)).close();
+
+    FixedClock.setTime(151);
+    pool.refill();
+
+    // The free one is replaced without ever going over max, the leased one is left alone
+    assertEquals(2, pool.getTotal());
+    assertEquals(1, pool.getFree());
+    verify(closer, times(1)).close();
+
+    // And replaced once it has been returned
+    a.close(false);
+    verify(closer, times(1)).close();
+    FixedClock.setTime(152);
+    pool.refill();
+
+    verify(closer, times(2)).close();
+    assertEquals(2, pool.getTotal());
+    assertEquals(2, pool.getFree());
+    assertNotSame(a, pool.take());
+  }
+
+  @Test
+  public void lifetimeReplaceWindowBreaker() throws Exception {
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setEvictionBatchSize(2)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(1)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .setLifetimeTimeout(200, Clock.getUnit())
+            .setLifetimeReplaceWindow(50, Clock.getUnit())
+            .setCircuitBreakerThreshold(1)
+            .setCircuitBreakerBackoff(100, Clock.getUnit())
+            .setHousekeepingExecutor(mock(ScheduledExecutorService.class))
+            .getConfig();
+    pool = create(config);
+    pool.refill();
+    final Pooled<Connection> a = pool.take();
+    a.close(false);
+
+    // A failed replacement counts against the breaker and the old one is kept
+    when(conn.isValid(anyInt())).thenReturn(false);
+    FixedClock.setTime(151);
+    pool.refill();
+    verify(conn, times(2)).isValid(anyInt());
+    assertTrue(pool.getBreaker().isOpen());
+    assertEquals(1, pool.getTotal());
+    assertSame(a, pool.take());
+  }
+
+  @Test
+  public void lifetimeReplaceWindowOnBorrow() throws Exception {
+    pool = create(replacePool());
+    pool.refill();
+
+    // Maintenance is due often enough to catch both inside the window
+    FixedClock.setTime(151);
+    final Pooled<Connection> a = pool.take();
+
+    assertEquals(2, pool.getTotal());
+    verify(closer, times(1)).close();
+    // The one it was handed is replaced on the next pass
+    a.close(false);
+    FixedClock.setTime(152);
+    pool.refill();
+    verify(closer, times(2)).close();
+  }
+
+  @Test
+  public void lifetimeReplaceWindowFails() throws Exception {
+    pool = create(replacePool());
+    pool.refill();
+    when(conn.isValid(anyInt())).thenReturn(false);
+
+    FixedClock.setTime(151);
+    pool.refill();
+
+    assertEquals(2, pool.getTotal());
+    verify(closer, times(0)).close();
+
+    when(conn.isValid(anyInt())).thenReturn(true);
+    FixedClock.setTime(201);
+    pool.refill();
+
+    // Expired as normal
+    assertEquals(2, pool.getTotal());
+    verify(closer, times(2)).close();
+  }
+
+  private Config replacePool() {
+    return Hexane.builder()
+        .setMaintenanceExecutor(Runnable::run)
+        .setRefillThreshold(0)
+        .setEvictionBatchSize(2)
+        .setCorePoolSize(2)
+        .setMaxPoolSize(2)
+        .setConnectionTimeout(10, TimeUnit.SECONDS)
+        .setLifetimeTimeout(200, Clock.getUnit())
+        .setLifetimeReplaceWindow(50, Clock.getUnit())
+        .getConfig();
+  }
+
+  @Test
+  public void adaptiveSizing() throws Exception {
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setAdaptiveSizingInterval(100, Clock.getUnit())
+            .setCorePoolSize(1)
+            .setMaxPoolSize(10)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .getConfig();
+    pool = create(config);
+    pool.refill();
+
+    assertEquals(1, pool.getTotal());
+
+    final Pooled<Connection> a = pool.take();
+    final Pooled<Connection> b = pool.take();
+    final Pooled<Connection> c = pool.take();
+    FixedClock.setTime(100);
+    a.close(false);
+    b.close(false);
+    c.close(false);
+    pool.refill();
+
+    // Three busy for the interval, the pool keeps more open than core
+    assertEquals(3, pool.getTotal());
+
+    pool.take().close(false);
+    FixedClock.setTime(200);
+    pool.refill();
+
+    // The target drops but the surplus is left for idle eviction
+    assertEquals(3, pool.getTotal());
+  }
+
+  @Test
+  public void evictionBatchSize() throws Exception {
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setEvictionBatchSize(4)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(4)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .setIdleTimeout(10, Clock.getUnit())
+            .getConfig();
+    pool = create(config);
+    pool.refill();
+    final Pooled<Connection> a = pool.take();
+    final Pooled<Connection> b = pool.take();
+    final Pooled<Connection> c = pool.take();
+    final Pooled<Connection> d = pool.take();
+    a.close(false);
+    b.close(false);
+    c.close(false);
+    d.close(false);
+
+    assertEquals(4, pool.getTotal());
+
+    FixedClock.setTime(11);
+    pool.refill();
+
+    // All the way down to core in a single pass
+    assertEquals(1, pool.getTotal());
+    assertEquals(1, pool.getFree());
+    verify(closer, times(3)).close();
+  }
+
+  @Test
+  public void housekeeping() throws Exception {
+    final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+    final ScheduledFuture<?> future = mock(ScheduledFuture.class);
+    final Ref<Runnable> task = new Ref<>();
+    doAnswer(
+            invocation -> {
+              task.setVal(invocation.getArgument(0));
+              return future;
+            })
+        .when(scheduler)
+        .scheduleAtFixedRate(any(Runnable.class), eq(5L), eq(5L), eq(Clock.getUnit()));
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setHousekeepingInterval(5, Clock.getUnit())
+            .setHousekeepingExecutor(scheduler)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(4)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .setIdleTimeout(10, Clock.getUnit())
+            .getConfig();
+    pool = create(config);
+    pool.start();
+
+    assertEquals(1, pool.getTotal());
+
+    final Pooled<Connection> a = pool.take();
+    final Pooled<Connection> b = pool.take();
+    a.close(false);
+    b.close(false);
+
+    assertEquals(2, pool.getTotal());
+
+    // No traffic, only the housekeeper
+    FixedClock.setTime(11);
+    task.getVal().run();
+
+    assertEquals(1, pool.getTotal());
+
+    pool.close();
+
+    verify(future).cancel(false);
+  }
+
+  @Test
+  public void takeAsync() throws Exception {
+    pool.refill();
+
+    final CompletableFuture<Pooled<Connection>> a = pool.takeAsync();
+
+    assertTrue(a.isDone());
+    assertEquals(1, pool.getFree());
+  }
+
+  @Test
+  public void takeAsyncHandedOffInOrder() throws Exception {
+    pool = create(asyncConfig(mock(ScheduledExecutorService.class)));
+    pool.refill();
+    final Pooled<Connection> a = pool.take();
+
+    final CompletableFuture<Pooled<Connection>> b = pool.takeAsync();
+    final CompletableFuture<Pooled<Connection>> c = pool.takeAsync();
+
+    assertFalse(b.isDone());
+    assertFalse(c.isDone());
+
+    a.close(false);
+
+    assertSame(a, b.get());
+    assertFalse(c.isDone());
+    assertEquals(0, pool.getFree());
+
+    b.get().close(false);
+
+    assertSame(a, c.get());
+  }
+
+  @Test
+  public void takeAsyncServedByRefill() throws Exception {
+    final Ref<Runnable> task = new Ref<>();
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(task::setVal)
+            .setHousekeepingExecutor(mock(ScheduledExecutorService.class))
+            .setCorePoolSize(1)
+            .setMaxPoolSize(1)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .getConfig();
+    pool = create(config);
+
+    final CompletableFuture<Pooled<Connection>> a = pool.takeAsync();
+
+    assertFalse(a.isDone());
+
+    task.getVal().run();
+
+    assertNotNull(a.get(1, TimeUnit.SECONDS));
+    assertEquals(1, pool.getTotal());
+    assertEquals(0, pool.getFree());
+  }
+
+  @Test
+  public void takeAsyncCompletedOffReturningThread() throws Exception {
+    pool = create(asyncConfig(mock(ScheduledExecutorService.class)));
+    pool.refill();
+    final Pooled<Connection> a = pool.take();
+
+    final CompletableFuture<Thread> b = pool.takeAsync().thenApply(val -> Thread.currentThread());
+    a.close(false);
+
+    assertNotSame(Thread.currentThread(), b.get(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void takeAsyncWithoutTimeoutDoesNotWait() throws Exception {
+    // No connection timeout, getConfig would set one
+    final Config config =
+        new Config(
+            Hexane.builder()
+                .setMaintenanceExecutor(Runnable::run)
+                .setHousekeepingExecutor(mock(ScheduledExecutorService.class))
+                .setValidationTimeout(1, TimeUnit.SECONDS)
+                .setRefillThreshold(0)
+                .setCorePoolSize(1)
+                .setMaxPoolSize(1));
+    pool = create(config);
+    pool.refill();
+    pool.take();
+
+    // The same as take
+    try {
+      pool.take();
+      fail();
+    } catch (final SQLTransientConnectionException e) {
+      // Expected
+    }
+    final CompletableFuture<Pooled<Connection>> a = pool.takeAsync();
+    assertTrue(a.isCompletedExceptionally());
+    try {
+      a.get();
+      fail();
+    } catch (final ExecutionException e) {
+      assertTrue(e.getCause() instanceof SQLTransientConnectionException);
+    }
+  }
+
+  @Test
+  public void takeAsyncTimeout() throws Exception {
+    final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+    final Ref<Runnable> expiry = new Ref<>();
+    doAnswer(
+            invocation -> {
+              expiry.setVal(invocation.getArgument(0));
+              return mock(ScheduledFuture.class);
+            })
+        .when(scheduler)
+        .schedule(any(Runnable.class), eq(10L), eq(TimeUnit.SECONDS));
+    pool = create(asyncConfig(scheduler));
+    pool.refill();
+    final Pooled<Connection> a = pool.take();
+
+    final CompletableFuture<Pooled<Connection>> b = pool.takeAsync();
+    expiry.getVal().run();
+
+    try {
+      b.get();
+      fail();
+    } catch (final ExecutionException e) {
+      assertTrue(e.getCause() instanceof SQLTransientConnectionException);
+    }
+
+    // The timed out caller doesn't get it
+    a.close(false);
+
+    assertEquals(1, pool.getFree());
+  }
+
+  @Test
+  public void takeAsyncFailsOnClose() throws Exception {
+    pool = create(asyncConfig(mock(ScheduledExecutorService.class)));
+    pool.refill();
+    pool.take();
+
+    final CompletableFuture<Pooled<Connection>> a = pool.takeAsync();
+    pool.close();
+
+    try {
+      a.get();
+      fail();
+    } catch (final ExecutionException e) {
+      assertTrue(e.getCause() instanceof SQLNonTransientException);
+    }
+    assertTrue(pool.takeAsync().isCompletedExceptionally());
+  }
+
+  private Config asyncConfig(final ScheduledExecutorService scheduler) {
+    return Hexane.builder()
+        .setMaintenanceExecutor(Runnable::run)
+        .setHousekeepingExecutor(scheduler)
+        .setRefillThreshold(0)
+        .setCorePoolSize(1)
+        .setMaxPoolSize(1)
+        .setConnectionTimeout(10, TimeUnit.SECONDS)
+        .getConfig();
+  }
+
+  @Test
+  public void threadFactory() throws Exception {
+    final AtomicInteger created = new AtomicInteger();
+    final CountDownLatch filled = new CountDownLatch(2);
+    when(conn.isValid(anyInt()))
+        .thenAnswer(
+            invocation -> {
+              filled.countDown();
+              return true;
+            });
+    final Config config =
+        Hexane.builder()
+            .setThreadFactory(
+                runnable -> {
+                  created.incrementAndGet();
+                  return new Thread(runnable);
+                })
+            .setCorePoolSize(2)
+            .setMaxPoolSize(2)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .getConfig();
+    pool = create(config);
+    pool.start();
+
+    assertTrue(filled.await(10, TimeUnit.SECONDS));
+    assertEquals(1, created.get());
+    pool.close();
+  }
+
+  @Test
+  public void driverThreads() throws Exception {
+    final Ref<Thread> thread = new Ref<>();
+    when(conn.isValid(anyInt()))
+        .thenAnswer(
+            invocation -> {
+              thread.setVal(Thread.currentThread());
+              return true;
+            });
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setDriverThreads(1)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(1)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .getConfig();
+    pool = create(config);
+    pool.refill();
+
+    assertEquals(1, pool.getTotal());
+    assertNotNull(thread.getVal());
+    assertNotSame(Thread.currentThread(), thread.getVal());
+    pool.close();
+  }
+
+  @Test
+  public void driverThreadsValidate() throws Exception {
+    final Ref<Thread> thread = new Ref<>();
+    pool = create(driverPool());
+    pool.refill();
+    when(conn.isValid(anyInt()))
+        .thenAnswer(
+            invocation -> {
+              thread.setVal(Thread.currentThread());
+              return true;
+            });
+
+    // Checked on borrow, but not on this thread
+    assertNotNull(pool.take());
+    assertNotNull(thread.getVal());
+    assertNotSame(Thread.currentThread(), thread.getVal());
+    pool.close();
+  }
+
+  @Test
+  public void driverThreadsInterrupted() throws Exception {
+    pool = create(driverPool());
+    pool.refill();
+    final CountDownLatch entered = new CountDownLatch(1), stall = new CountDownLatch(1);
+    when(conn.isValid(anyInt()))
+        .thenAnswer(
+            invocation -> {
+              entered.countDown();
+              stall.await(10, TimeUnit.SECONDS);
+              return true;
+            });
+    final Ref<Throwable> thrown = new Ref<>();
+    final Thread thread =
+        new Thread(
+            () -> {
+              try {
+                pool.take();
+              } catch (final Throwable e) {
+                thrown.setVal(e);
+              }
+            });
+    try {
+      thread.start();
+      assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+      // Stops waiting on the driver like it would waiting for a connection
+      thread.interrupt();
+      thread.join(5000);
+      assertFalse(thread.isAlive());
+      assertTrue(thrown.getVal() instanceof SQLException);
+    } finally {
+      stall.countDown();
+      pool.close();
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void driverThreadsRethrow() throws Exception {
+    pool = create(driverPool());
+    pool.refill();
+    when(conn.isValid(anyInt())).thenThrow(new IllegalStateException());
+    try {
+      pool.take();
+    } finally {
+      pool.close();
+    }
+  }
+
+  private Config driverPool() {
+    return Hexane.builder()
+        .setMaintenanceExecutor(Runnable::run)
+        .setDriverThreads(1)
+        .setRefillThreshold(0)
+        .setCorePoolSize(1)
+        .setMaxPoolSize(1)
+        .setConnectionTimeout(10, TimeUnit.SECONDS)
+        .setValidationIdleThreshold(0, TimeUnit.NANOSECONDS)
+        .getConfig();
+  }
+
   @Test
   public void close() throws Exception {
     pool.refill();
-    final Pooled<Connection> item = pool.take();
-    item.enlist(closer);
-    item.close(false);
+    final Pooled<Connection> item = pool.take();
+    item.enlist(closer);
+    item.close(false);
+
+    pool.close();
+
+    verify(closer).close();
+    assertEquals(0, pool.getTotal());
+    assertEquals(0, pool.getFree());
+  }
+
+  @Test
+  public void closeWhileTaken() throws Exception {
+    pool.refill();
+    pool.take().enlist(closer);
+
+    pool.close();
+
+    verify(closer).close();
+    assertEquals(0, pool.getTotal());
+    assertEquals(0, pool.getFree());
+  }
+
+  @Test
+  public void closeThrows() throws Exception {
+    pool.refill();
+    doThrow(TestUtil.getNormal()).when(closer).close();
+    pool.take().enlist(closer);
+
+    try {
+      pool.close();
+    } catch (final SQLException e) {
+      assertEquals(0, pool.getTotal());
+      assertEquals(0, pool.getFree());
+    }
+  }
+
+  @Test(expected = SQLNonTransientException.class)
+  public void takeThrowsWhenClosed() throws Exception {
+    pool.close();
+
+    pool.take();
+  }
+
+  @Test
+  public void removeTotalRightWhenClosed() throws Exception {
+    final Pooled<Connection> x = pool.take();
+
+    pool.close();
+    assertEquals(0, pool.getTotal());
+    assertEquals(0, pool.getFree());
+
+    pool.remove(x);
+    assertEquals(0, pool.getTotal());
+    assertEquals(0, pool.getFree());
+  }
+
+  @Test
+  public void refillIgnoredWhenClosed() throws Exception {
+    pool.close();
+    assertEquals(0, pool.getTotal());
+    assertEquals(0, pool.getFree());
+
+    pool.refill();
+    assertEquals(0, pool.getTotal());
+    assertEquals(0, pool.getFree());
+  }
+
+  @Test
+  public void takeWrapsInterruptAsSQLException() throws Exception {
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(
+                cmd -> {
+                  // Ignore
+                })
+            .setCorePoolSize(2)
+            .setMaxPoolSize(4)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .setIdleTimeout(10, Clock.getUnit())
+            .setLifetimeTimeout(200, Clock.getUnit())
+            .getConfig();
+    pool =
+        new BasePool<Connection>(config, Defaults.create(config, conn)) {
+          @Override
+          protected Connection getConnection() {
+            return conn;
+          }
+
+          @Override
+          protected Connection getConnection(final Connection item) {
+            return conn;
+          }
+
+          @Override
+          protected AutoCloseable getCloser(final Connection item) {
+            return closer;
+          }
+        };
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicBoolean finish = new AtomicBoolean(false);
+    final Ref<SQLException> exception = new Ref<>();
+    final Thread worker =
+        new Thread(
+            () -> {
+              try {
+                pool.take();
+              } catch (final SQLException e) {
+                exception.setVal(e);
+              }
+              start.countDown();
+              while (!finish.get()) {}
+            });
+    worker.start();
+    Thread.sleep(100);
+    worker.interrupt();
+    start.await(1, TimeUnit.SECONDS);
+
+    assertNotNull(exception.getVal());
+    assertTrue(worker.isInterrupted());
+
+    finish.set(true);
+  }
+
+  @Test
+  public void refillThreshold() throws Exception {
+    final AtomicInteger submitted = new AtomicInteger();
+    final Ref<Runnable> task = new Ref<>();
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(
+                cmd -> {
+                  submitted.incrementAndGet();
+                  task.setVal(cmd);
+                })
+            .setRefillThreshold(2)
+            .setCorePoolSize(2)
+            .setMaxPoolSize(4)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .getConfig();
+    pool = create(config);
+    pool.refill();
+
+    pool.take();
+
+    // One left free is below the threshold
+    assertEquals(1, submitted.get());
+
+    pool.take();
+
+    // Already pending so not submitted again
+    assertEquals(1, submitted.get());
+    assertEquals(2, pool.getTotal());
+    assertEquals(0, pool.getFree());
+
+    task.getVal().run();
+
+    assertEquals(3, pool.getTotal());
+    assertEquals(1, pool.getFree());
+
+    pool.take();
+
+    assertEquals(2, submitted.get());
+  }
+
+  @Test
+  public void refillNotSubmittedWhileRunning() throws Exception {
+    final List<Runnable> tasks = new ArrayList<>();
+    final List<Integer> submitted = new ArrayList<>();
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(tasks::add)
+            .setCorePoolSize(2)
+            .setMaxPoolSize(4)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .getConfig();
+    pool =
+        new BasePool<Connection>(config, Defaults.create(config, conn)) {
+          @Override
+          protected Connection getConnection() {
+            signal();
+            submitted.add(tasks.size());
+            return conn;
+          }
+
+          @Override
+          protected Connection getConnection(final Connection item) {
+            return item;
+          }
+
+          @Override
+          protected AutoCloseable getCloser(final Connection item) {
+            return closer;
+          }
+        };
+    tasks.clear();
+
+    pool.signal();
+    assertEquals(1, tasks.size());
+
+    tasks.get(0).run();
+
+    assertEquals(2, pool.getTotal());
+    assertEquals(2, submitted.size());
+    assertEquals(1, (int) submitted.get(0));
+    assertEquals(1, (int) submitted.get(1));
+    // Signalled during the refill so it is submitted again once it is done
+    assertEquals(2, tasks.size());
+  }
+
+  @Test
+  public void refillNotSubmittedWhenFree() throws Exception {
+    final AtomicInteger submitted = new AtomicInteger();
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(cmd -> submitted.incrementAndGet())
+            .setCorePoolSize(2)
+            .setMaxPoolSize(4)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .getConfig();
+    pool = create(config);
+    pool.refill();
+
+    for (int i = 0; i < 10; ++i) {
+      pool.give(pool.take());
+    }
+
+    assertEquals(0, submitted.get());
+  }
+
+  @Test
+  public void creationConcurrency() throws Exception {
+    final AtomicInteger submitted = new AtomicInteger();
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setCreationConcurrency(4)
+            .setCreationExecutor(
+                cmd -> {
+                  submitted.incrementAndGet();
+                  cmd.run();
+                })
+            .setRefillThreshold(0)
+            .setCorePoolSize(6)
+            .setMaxPoolSize(8)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .getConfig();
+    pool = create(config);
+    pool.refill();
+
+    // 4 then the remaining 2
+    assertEquals(6, submitted.get());
+    assertEquals(6, pool.getTotal());
+    assertEquals(6, pool.getFree());
+
+    pool.addNewInParallel(4, config.getMaxPoolSize());
+
+    // Only 2 can win the cas
+    assertEquals(10, submitted.get());
+    assertEquals(8, pool.getTotal());
+    assertEquals(8, pool.getFree());
+  }
+
+  @Test
+  public void creationConcurrencyRejected() throws Exception {
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setCreationConcurrency(4)
+            .setCreationExecutor(
+                cmd -> {
+                  throw new RejectedExecutionException();
+                })
+            .setCorePoolSize(4)
+            .setMaxPoolSize(4)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .getConfig();
+    pool = create(config);
+    pool.refill();
+
+    assertEquals(4, pool.getTotal());
+    assertEquals(4, pool.getFree());
+  }
+
+  @Test
+  public void creationConcurrencyStalled() throws Exception {
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setCreationConcurrency(4)
+            .setCreationExecutor(cmd -> {})
+            .setRefillThreshold(0)
+            .setCorePoolSize(4)
+            .setMaxPoolSize(4)
+            .setConnectionTimeout(10, TimeUnit.MILLISECONDS)
+            .getConfig();
+    pool = create(config);
+
+    // Gives up rather than waiting for tasks that never run
+    assertFalse(pool.addNewInParallel(4, config.getMaxPoolSize()));
+    pool.refill();
+    assertEquals(0, pool.getTotal());
+  }
+
+  @Test
+  public void dequeSkipsRemoved() throws Exception {
+    final HexaneListener listener = mock(HexaneListener.class);
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setFreeListType(FreeListType.DEQUE)
+            .setRefillThreshold(0)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(1)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .setLifetimeTimeout(200, Clock.getUnit())
+            .setListener(listener)
+            .getConfig();
+    pool = create(config);
+    pool.refill();
+
+    // Broken and replaced, its deadline is still queued
+    final Pooled<Connection> a = pool.take();
+    a.close(true);
+    assertEquals(1, pool.getTotal());
+    assertEquals(1, pool.getFree());
+
+    // Only the replacement expires
+    FixedClock.setTime(201);
+    pool.refill();
+    verify(listener, times(1)).onConnectionLifetimeEviction();
+  }
+
+  @Test
+  public void rejectWhenTooManyWaiters() throws Exception {
+    final HexaneListener listener = mock(HexaneListener.class);
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(1)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .setMaxWaiters(0)
+            .setListener(listener)
+            .getConfig();
+    pool = create(config);
+    pool.refill();
+    final Pooled<Connection> a = pool.take();
+
+    try {
+      pool.take();
+      fail();
+    } catch (final HexaneRejectedException e) {
+      // Expected
+    }
+    verify(listener).onConnectionRejected(0, 0, Clock.getUnit());
+    verify(listener, times(0)).onConnectionTimeout(anyLong(), any());
+
+    final CompletableFuture<Pooled<Connection>> async = pool.takeAsync();
+    assertTrue(async.isCompletedExceptionally());
+
+    a.close(false);
+    assertSame(a, pool.take());
+  }
+
+  private BasePool<Connection> priorityPool(final int timeout) throws SQLException {
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setCorePoolSize(2)
+            .setMaxPoolSize(2)
+            .setConnectionTimeout(timeout, TimeUnit.MILLISECONDS)
+            .setPriorityClass(10, 1, 2)
+            .getConfig();
+    return create(config);
+  }
+
+  @Test
+  public void priorityReserved() throws Exception {
+    pool = priorityPool(10);
+    pool.refill();
+
+    final Pooled<Connection> a = pool.take();
+    try {
+      pool.take();
+      fail();
+    } catch (final SQLTransientConnectionException e) {
+      // The last connection is reserved for class 10
+    }
+    assertEquals(1, pool.getFree());
+
+    final Pooled<Connection> b = pool.take(10);
+    assertEquals(0, pool.getFree());
+    b.close(false);
+    a.close(false);
+
+    assertNotNull(pool.take(10));
+    assertNotNull(pool.take(10));
+  }
+
+  @Test
+  public void priorityAsync() throws Exception {
+    pool = priorityPool(10000);
+    pool.refill();
+
+    final Pooled<Connection> a = pool.take(10);
+    final Pooled<Connection> b = pool.take(10);
+    final CompletableFuture<Pooled<Connection>> low = pool.takeAsync();
+    final CompletableFuture<Pooled<Connection>> high = pool.takeAsync(10);
+    assertFalse(low.isDone());
+    assertFalse(high.isDone());
 
-    pool.close();
+    a.close(false);
+    assertSame(a, high.get(1, TimeUnit.SECONDS));
+    assertFalse(low.isDone());
 
-    verify(closer).close();
-    assertEquals(0, pool.getTotal());
-    assertEquals(0, pool.getFree());
+    b.close(false);
+    assertSame(b, low.get(1, TimeUnit.SECONDS));
   }
 
   @Test
-  public void closeWhileTaken() throws Exception {
+  public void priorityHandOffKeepsLanes() throws Exception {
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(cmd -> {})
+            .setHousekeepingExecutor(mock(ScheduledExecutorService.class))
+            .setRefillThreshold(0)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(2)
+            .setConnectionTimeout(10, TimeUnit.MILLISECONDS)
+            .setPriorityClass(10, 1, 2)
+            .getConfig();
+    pool = create(config);
     pool.refill();
-    pool.take().enlist(closer);
 
-    pool.close();
+    // Let in by the gate but there is no connection for it yet
+    final Pooled<Connection> a = pool.take();
+    final CompletableFuture<Pooled<Connection>> high = pool.takeAsync(10);
+    assertFalse(high.isDone());
 
-    verify(closer).close();
-    assertEquals(0, pool.getTotal());
-    assertEquals(0, pool.getFree());
+    a.close(false);
+    assertSame(a, high.get(1, TimeUnit.SECONDS));
+    final PriorityGate.Lane lane = a.getLane();
+    assertNotNull(lane);
+    assertEquals(10, lane.priority);
+    assertEquals(1, lane.leased);
+
+    // The default class got its permit back
+    a.close(false);
+    assertEquals(0, lane.leased);
+    assertSame(a, pool.take());
   }
 
   @Test
-  public void closeThrows() throws Exception {
+  public void priorityCancelledGivesBackPermit() throws Exception {
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(cmd -> {})
+            .setHousekeepingExecutor(mock(ScheduledExecutorService.class))
+            .setCompletionExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(2)
+            .setConnectionTimeout(10, TimeUnit.MILLISECONDS)
+            .setPriorityClass(10, 0, 1)
+            .getConfig();
+    pool = create(config);
     pool.refill();
-    doThrow(TestUtil.getNormal()).when(closer).close();
-    pool.take().enlist(closer);
+    final Pooled<Connection> a = pool.take(10);
+    final PriorityGate.Lane lane = a.getLane();
 
-    try {
-      pool.close();
-    } catch (final SQLException e) {
-      assertEquals(0, pool.getTotal());
-      assertEquals(0, pool.getFree());
-    }
+    // Cancelled while queued at the gate
+    final CompletableFuture<Pooled<Connection>> queued = pool.takeAsync(10);
+    assertTrue(queued.cancel(false));
+    a.close(false);
+    assertEquals(0, lane.leased);
+
+    // Cancelled once let in, while waiting on the pool
+    final Pooled<Connection> b = pool.take();
+    final CompletableFuture<Pooled<Connection>> waiting = pool.takeAsync(10);
+    assertFalse(waiting.isDone());
+    assertEquals(1, lane.leased);
+    assertTrue(waiting.cancel(false));
+    b.close(false);
+    assertEquals(0, lane.leased);
+    assertEquals(1, pool.getFree());
+
+    // Neither cost the class its capacity
+    assertSame(b, pool.take(10));
+    assertEquals(1, lane.leased);
   }
 
   @Test(expected = SQLNonTransientException.class)
-  public void takeThrowsWhenClosed() throws Exception {
-    pool.close();
+  public void priorityUnknown() throws Exception {
+    pool = priorityPool(10);
+    pool.take(5);
+  }
 
-    pool.take();
+  @Test(expected = SQLNonTransientException.class)
+  public void priorityNotConfigured() throws Exception {
+    pool.take(10);
   }
 
   @Test
-  public void removeTotalRightWhenClosed() throws Exception {
-    final Pooled<Connection> x = pool.take();
+  public void budgetHeldUntilExpiredIsClosed() throws Exception {
+    final Config.Builder builder =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(1)
+            .setConnectionTimeout(10, TimeUnit.MILLISECONDS)
+            .setLifetimeTimeout(200, Clock.getUnit());
+    final Config shared = builder.getConfig();
+    final ConnectionBudget budget = new ConnectionBudget(2);
+    final Config.Partition partition = Hexane.partition();
+    final BasePool<Connection> a = create(new Config(builder, partition, shared, budget));
+    final BasePool<Connection> b = create(new Config(builder, partition, shared, budget));
+    a.start();
+    b.start();
+    final Pooled<Connection> a1 = a.take();
+    assertEquals(2, budget.getUsed());
 
-    pool.close();
-    assertEquals(0, pool.getTotal());
-    assertEquals(0, pool.getFree());
+    // Expired while leased, the borrower still has it open so nothing can be opened in its place
+    FixedClock.setTime(201);
+    a.refill();
+    assertEquals(0, a.getTotal());
+    assertEquals(2, budget.getUsed());
 
-    pool.remove(x);
-    assertEquals(0, pool.getTotal());
-    assertEquals(0, pool.getFree());
+    // Until it is closed, then a gets its place back
+    a1.close(false);
+    a1.close(false);
+    verify(closer, times(1)).close();
+    assertEquals(1, a.getTotal());
+    assertEquals(2, budget.getUsed());
   }
 
   @Test
-  public void refillIgnoredWhenClosed() throws Exception {
-    pool.close();
-    assertEquals(0, pool.getTotal());
-    assertEquals(0, pool.getFree());
+  public void budgetIsShared() throws Exception {
+    final Config.Builder builder =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(3)
+            .setConnectionTimeout(10, TimeUnit.MILLISECONDS);
+    final Config shared = builder.getConfig();
+    final ConnectionBudget budget = new ConnectionBudget(3);
+    final Config.Partition partition = Hexane.partition().setMaxPoolSize(2);
+    final BasePool<Connection> a = create(new Config(builder, partition, shared, budget));
+    final BasePool<Connection> b = create(new Config(builder, partition, shared, budget));
+    a.start();
+    b.start();
 
-    pool.refill();
-    assertEquals(0, pool.getTotal());
-    assertEquals(0, pool.getFree());
+    final Pooled<Connection> a1 = a.take();
+    final Pooled<Connection> a2 = a.take();
+    final Pooled<Connection> b1 = b.take();
+    assertEquals(2, a.getTotal());
+    assertEquals(1, b.getTotal());
+    assertEquals(3, budget.getUsed());
+
+    // a's connections are leased so b can't have one
+    try {
+      b.take();
+      fail();
+    } catch (final SQLTransientConnectionException e) {
+      // Expected
+    }
+    assertEquals(1, b.getTotal());
+
+    // Once one is idle above a's core size it is given up for b
+    a2.close(false);
+    final Pooled<Connection> b2 = b.take();
+    assertEquals(1, a.getTotal());
+    assertEquals(2, b.getTotal());
+    assertEquals(3, budget.getUsed());
+    verify(closer, times(1)).close();
+
+    b1.close(false);
+    b2.close(false);
+    a1.close(false);
+    a.close();
+    assertEquals(2, budget.getUsed());
   }
 
   @Test
-  public void takeWrapsInterruptAsSQLException() throws Exception {
+  public void fairHandOff() throws Exception {
     final Config config =
         Hexane.builder()
-            .setMaintenanceExecutor(
-                cmd -> {
-                  // Ignore
-                })
-            .setCorePoolSize(2)
-            .setMaxPoolSize(4)
+            .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(1)
             .setConnectionTimeout(10, TimeUnit.SECONDS)
-            .setIdleTimeout(10, Clock.getUnit())
-            .setLifetimeTimeout(200, Clock.getUnit())
+            .setFreeListType(FreeListType.LOCK_FREE)
+            .setFairHandOff(true)
             .getConfig();
-    pool =
-        new BasePool<Connection>(config, Defaults.create(config, conn)) {
-          @Override
-          protected Connection getConnection() {
-            return conn;
-          }
+    pool = create(config);
+    pool.refill();
+    final Pooled<Connection> a = pool.take();
 
-          @Override
-          protected Connection getConnection(final Connection item) {
-            return conn;
-          }
+    final CountDownLatch started = new CountDownLatch(1);
+    final Ref<Pooled<Connection>> ret = new Ref<>();
+    final Thread waiter =
+        new Thread(
+            () -> {
+              started.countDown();
+              try {
+                ret.setVal(pool.take());
+              } catch (final SQLException e) {
+                throw new RuntimeException(e);
+              }
+            });
+    waiter.start();
+    started.await();
+    while (waiter.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+    a.close(false);
 
-          @Override
-          protected AutoCloseable getCloser(final Connection item) {
-            return closer;
-          }
-        };
-    final CountDownLatch start = new CountDownLatch(1);
-    final AtomicBoolean finish = new AtomicBoolean(false);
-    final Ref<SQLException> exception = new Ref<>();
-    final Thread worker =
+    // The waiter owns it already so a barging borrower finds nothing
+    assertEquals(0, pool.getFree());
+    waiter.join(TimeUnit.SECONDS.toMillis(5));
+    assertSame(a, ret.getVal());
+  }
+
+  @Test
+  public void threadAffinity() throws Exception {
+    pool = affinityPool();
+    pool.refill();
+
+    final Pooled<Connection> a = pool.take();
+    final Pooled<Connection> b = pool.take();
+    pool.give(a);
+    pool.give(b);
+
+    assertSame(b, pool.take());
+    assertEquals(2, pool.getTotal());
+    assertEquals(1, pool.getFree());
+  }
+
+  @Test
+  public void threadAffinityTakenByOtherThread() throws Exception {
+    pool = affinityPool();
+    pool.refill();
+
+    final Pooled<Connection> a = pool.take();
+    final Pooled<Connection> b = pool.take();
+    pool.give(a);
+    pool.give(b);
+
+    final Ref<Exception> exception = new Ref<>();
+    final Thread other =
         new Thread(
             () -> {
               try {
                 pool.take();
+                pool.take();
               } catch (final SQLException e) {
                 exception.setVal(e);
               }
-              start.countDown();
-              while (!finish.get()) {}
             });
-    worker.start();
-    Thread.sleep(100);
-    worker.interrupt();
-    start.await(1, TimeUnit.SECONDS);
+    other.start();
+    other.join();
+    assertNull(exception.getVal());
+    assertEquals(0, pool.getFree());
 
-    assertNotNull(exception.getVal());
-    assertTrue(worker.isInterrupted());
+    final Pooled<Connection> c = pool.take();
 
-    finish.set(true);
+    assertNotSame(a, c);
+    assertNotSame(b, c);
+    assertEquals(3, pool.getTotal());
+  }
+
+  @Test
+  public void validateIdleOnBorrow() throws Exception {
+    final List<Connection> opened = new ArrayList<>();
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(1)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .setValidationIdleThreshold(100, TimeUnit.NANOSECONDS)
+            .getConfig();
+    final BasePool<Connection> pool = openingPool(config, opened);
+    pool.refill();
+    final Connection first = opened.get(0);
+
+    // Recently used so not checked
+    FixedClock.setTime(99);
+    pool.take().close(false);
+    verify(first, times(1)).isValid(anyInt());
+
+    FixedClock.setTime(199);
+    pool.take().close(false);
+    verify(first, times(2)).isValid(anyInt());
+
+    // A dead one is replaced without the caller seeing it
+    when(first.isValid(anyInt())).thenReturn(false);
+    FixedClock.setTime(299);
+    final Pooled<Connection> val = pool.take();
+    assertEquals(2, opened.size());
+    assertSame(opened.get(1), val.getConnection());
+    assertEquals(1, pool.getTotal());
+    verify(closer).close();
+    val.close(false);
+  }
+
+  @Test
+  public void validateIdleFeedsHealth() throws Exception {
+    final List<Connection> opened = new ArrayList<>();
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(1)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .setValidationIdleThreshold(100, TimeUnit.NANOSECONDS)
+            .getConfig();
+    final BasePool<Connection> pool = openingPool(config, opened);
+    pool.refill();
+    final Connection first = opened.get(0);
+    assertEquals(0, pool.getHealth().getValidationLatency());
+
+    when(first.isValid(anyInt()))
+        .then(
+            invocation -> {
+              FixedClock.setTime(FixedClock.time + 40);
+              return true;
+            });
+    FixedClock.setTime(100);
+    pool.take().close(false);
+    assertEquals(40, pool.getHealth().getValidationLatency());
+
+    // A failed check counts as an error, then opening the replacement as a success
+    when(first.isValid(anyInt())).thenReturn(false);
+    FixedClock.setTime(300);
+    pool.take().close(false);
+    assertEquals(2, opened.size());
+    assertEquals(0.109375, pool.getHealth().getErrorRate(), 0.0001);
+  }
+
+  private BasePool<Connection> openingPool(final Config config, final List<Connection> opened)
+      throws SQLException {
+    return new BasePool<Connection>(config, Defaults.create(config, conn)) {
+      @Override
+      protected Connection getConnection() {
+        final Connection ret = mock(Connection.class);
+        try {
+          when(ret.isValid(anyInt())).thenReturn(true);
+          when(ret.createStatement()).thenReturn(mock(Statement.class));
+        } catch (final SQLException e) {
+          throw new AssertionError(e);
+        }
+        opened.add(ret);
+        return ret;
+      }
+
+      @Override
+      protected Connection getConnection(final Connection item) {
+        return item;
+      }
+
+      @Override
+      protected AutoCloseable getCloser(final Connection item) {
+        return closer;
+      }
+    };
+  }
+
+  @Test
+  public void keepalive() throws Exception {
+    final List<Connection> opened = new ArrayList<>();
+    final BasePool<Connection> pool =
+        openingPool(
+            Hexane.builder()
+                .setMaintenanceExecutor(Runnable::run)
+                .setRefillThreshold(0)
+                .setCorePoolSize(2)
+                .setMaxPoolSize(2)
+                .setConnectionTimeout(10, TimeUnit.SECONDS)
+                .setKeepaliveInterval(100, TimeUnit.NANOSECONDS)
+                .setKeepaliveBatchSize(1)
+                .getConfig(),
+            opened);
+    pool.refill();
+    assertEquals(2, opened.size());
+    final Connection a = opened.get(0), b = opened.get(1);
+
+    // Not idle long enough
+    pool.keepalive();
+    verify(a, times(1)).isValid(anyInt());
+    verify(b, times(1)).isValid(anyInt());
+
+    // One per batch, then the other since the first was just checked
+    FixedClock.setTime(100);
+    pool.keepalive();
+    pool.keepalive();
+    verify(a, times(2)).isValid(anyInt());
+    verify(b, times(2)).isValid(anyInt());
+    assertEquals(2, pool.getFree());
+
+    // Broken ones are evicted and replaced
+    when(a.isValid(anyInt())).thenReturn(false);
+    FixedClock.setTime(200);
+    pool.keepalive();
+    pool.keepalive();
+    assertEquals(3, opened.size());
+    assertEquals(2, pool.getTotal());
+    assertEquals(2, pool.getFree());
+    verify(closer).close();
+  }
+
+  @Test
+  public void keepaliveQuery() throws Exception {
+    final List<Connection> opened = new ArrayList<>();
+    final BasePool<Connection> pool =
+        openingPool(
+            Hexane.builder()
+                .setMaintenanceExecutor(Runnable::run)
+                .setRefillThreshold(0)
+                .setCorePoolSize(1)
+                .setMaxPoolSize(1)
+                .setConnectionTimeout(10, TimeUnit.SECONDS)
+                .setKeepaliveInterval(100, TimeUnit.NANOSECONDS)
+                .setValidationQuery("SELECT 1")
+                .getConfig(),
+            opened);
+    pool.refill();
+    final Statement statement = opened.get(0).createStatement();
+    FixedClock.setTime(100);
+    pool.keepalive();
+    verify(statement).execute("SELECT 1");
+    verify(statement).close();
+    assertEquals(1, pool.getFree());
+  }
+
+  @Test
+  public void keepaliveDoesNotPreventIdleEviction() throws Exception {
+    final List<Connection> opened = new ArrayList<>();
+    final BasePool<Connection> pool =
+        openingPool(
+            Hexane.builder()
+                .setMaintenanceExecutor(Runnable::run)
+                .setRefillThreshold(0)
+                .setCorePoolSize(1)
+                .setMaxPoolSize(2)
+                .setConnectionTimeout(10, TimeUnit.SECONDS)
+                .setIdleTimeout(150, TimeUnit.NANOSECONDS)
+                .setKeepaliveInterval(100, TimeUnit.NANOSECONDS)
+                .setKeepaliveBatchSize(2)
+                .getConfig(),
+            opened);
+    pool.refill();
+    final Pooled<Connection> a = pool.take();
+    final Pooled<Connection> b = pool.take();
+    a.close(false);
+    b.close(false);
+    assertEquals(2, pool.getTotal());
+
+    FixedClock.setTime(100);
+    pool.keepalive();
+    verify(opened.get(0), times(2)).isValid(anyInt());
+    verify(opened.get(1), times(2)).isValid(anyInt());
+
+    // Checked but not used, so still idle
+    FixedClock.setTime(151);
+    pool.refill();
+    assertEquals(1, pool.getTotal());
+    assertEquals(1, pool.getFree());
+  }
+
+  @Test
+  public void idleWhileLeasedIsNotEvicted() throws Exception {
+    for (final FreeListType type : FreeListType.values()) {
+      FixedClock.setTime(0);
+      closer = mock(AutoCloseable.class);
+      final BasePool<Connection> pool =
+          create(
+              Hexane.builder()
+                  .setMaintenanceExecutor(Runnable::run)
+                  .setFreeListType(type)
+                  .setRefillThreshold(0)
+                  .setCorePoolSize(0)
+                  .setMaxPoolSize(1)
+                  .setConnectionTimeout(10, TimeUnit.SECONDS)
+                  .setIdleTimeout(10, Clock.getUnit())
+                  .getConfig());
+      final Pooled<Connection> a = pool.take();
+
+      FixedClock.setTime(11);
+      pool.refill();
+      FixedClock.setTime(12);
+      a.close(false);
+      assertEquals(type.name(), 1, pool.getTotal());
+      assertEquals(type.name(), 1, pool.getFree());
+      verify(closer, never()).close();
+      pool.close();
+    }
+  }
+
+  @Test
+  public void dequeRejectsExpired() throws Exception {
+    final DequeFreeList<Connection> free = new DequeFreeList<>();
+    final Pooled<Connection> val = new Pooled<>(pool, conn, conn, closer, null);
+    free.add(val);
+    assertTrue(free.claim(val));
+    val.expire();
+    assertFalse(free.offer(val));
+    assertEquals(0, free.size());
+    assertNull(free.poll());
+  }
+
+  @Test
+  public void leakDetection() throws Exception {
+    final HexaneListener listener = mock(HexaneListener.class);
+    final BasePool<Connection> pool =
+        create(
+            Hexane.builder()
+                .setMaintenanceExecutor(Runnable::run)
+                .setRefillThreshold(0)
+                .setCorePoolSize(0)
+                .setMaxPoolSize(2)
+                .setConnectionTimeout(10, TimeUnit.SECONDS)
+                .setLeakDetectionThreshold(100, TimeUnit.NANOSECONDS)
+                .setListener(listener)
+                .getConfig());
+    final Pooled<Connection> a = pool.take();
+
+    // Not held long enough
+    FixedClock.setTime(99);
+    pool.checkLeaks();
+    verify(listener, times(0)).onConnectionLeak(anyLong(), any(), any());
+
+    // Blames the thread that holds it, and only once per lease
+    FixedClock.setTime(150);
+    pool.checkLeaks();
+    pool.checkLeaks();
+    final ArgumentCaptor<Throwable> trace = ArgumentCaptor.forClass(Throwable.class);
+    verify(listener).onConnectionLeak(eq(150L), same(Clock.getUnit()), trace.capture());
+    assertEquals(
+        Msg.LEAK_HELD_BY + Thread.currentThread().getName(), trace.getValue().getMessage());
+    assertTrue(trace.getValue().getStackTrace().length > 0);
+
+    // Returned connections are not leaks
+    a.close(false);
+    FixedClock.setTime(300);
+    pool.checkLeaks();
+    verify(listener, times(1)).onConnectionLeak(anyLong(), any(), any());
+
+    // A new lease is timed from when it was acquired
+    final Pooled<Connection> b = pool.take();
+    FixedClock.setTime(400);
+    pool.checkLeaks();
+    verify(listener).onConnectionLeak(eq(100L), same(Clock.getUnit()), any());
+    b.close(false);
+  }
+
+  @Test
+  public void leakDetectionCancelledWaiter() throws Exception {
+    final HexaneListener listener = mock(HexaneListener.class);
+    final BasePool<Connection> pool =
+        create(
+            Hexane.builder()
+                .setMaintenanceExecutor(Runnable::run)
+                .setHousekeepingExecutor(mock(ScheduledExecutorService.class))
+                .setRefillThreshold(0)
+                .setCorePoolSize(0)
+                .setMaxPoolSize(1)
+                .setConnectionTimeout(10, TimeUnit.SECONDS)
+                .setLeakDetectionThreshold(100, TimeUnit.NANOSECONDS)
+                .setListener(listener)
+                .getConfig());
+    final Pooled<Connection> a = pool.take();
+    final CompletableFuture<Pooled<Connection>> waiting = pool.takeAsync();
+    waiting.cancel(false);
+
+    // Nobody took it so it isn't leased
+    a.close(false);
+    assertEquals(1, pool.getFree());
+    FixedClock.setTime(200);
+    pool.checkLeaks();
+    verify(listener, times(0)).onConnectionLeak(anyLong(), any(), any());
+  }
+
+  @Test
+  public void leakDetectionSampled() throws Exception {
+    final HexaneListener listener = mock(HexaneListener.class);
+    final BasePool<Connection> pool =
+        create(
+            Hexane.builder()
+                .setMaintenanceExecutor(Runnable::run)
+                .setRefillThreshold(0)
+                .setCorePoolSize(0)
+                .setMaxPoolSize(1)
+                .setConnectionTimeout(10, TimeUnit.SECONDS)
+                .setLeakDetectionThreshold(100, TimeUnit.NANOSECONDS)
+                .setLeakTraceSampleRate(100)
+                .setListener(listener)
+                .getConfig());
+    final Pooled<Connection> a = pool.take();
+    FixedClock.setTime(100);
+    pool.checkLeaks();
+    final ArgumentCaptor<Throwable> trace = ArgumentCaptor.forClass(Throwable.class);
+    verify(listener).onConnectionLeak(eq(100L), same(Clock.getUnit()), trace.capture());
+    assertEquals(Msg.LEAK_ACQUIRED, trace.getValue().getMessage());
+    a.close(false);
+  }
+
+  @Test
+  public void circuitBreaker() throws Exception {
+    final BasePool<Connection> pool =
+        create(
+            Hexane.builder()
+                .setMaintenanceExecutor(Runnable::run)
+                .setRefillThreshold(0)
+                .setCorePoolSize(2)
+                .setMaxPoolSize(4)
+                .setConnectionTimeout(10, TimeUnit.SECONDS)
+                .setCircuitBreakerThreshold(3)
+                .setCircuitBreakerBackoff(100, TimeUnit.NANOSECONDS)
+                // The retry is driven by hand below
+                .setHousekeepingExecutor(mock(ScheduledExecutorService.class))
+                .getConfig());
+    when(conn.isValid(anyInt())).thenReturn(false);
+
+    // Gives up rather than retrying forever
+    pool.refill();
+    assertEquals(0, pool.getTotal());
+    assertTrue(pool.getBreaker().isOpen());
+    verify(conn, times(3)).isValid(anyInt());
+    try {
+      pool.take();
+      fail();
+    } catch (final HexaneCircuitOpenException e) {
+      // Expected
+    }
+    try {
+      pool.takeAsync().join();
+      fail();
+    } catch (final CompletionException e) {
+      assertTrue(e.getCause() instanceof HexaneCircuitOpenException);
+    }
+    verify(conn, times(3)).isValid(anyInt());
+
+    FixedClock.setTime(100);
+    when(conn.isValid(anyInt())).thenReturn(true);
+    pool.refill();
+    assertEquals(CircuitBreaker.STATE_CLOSED, pool.getBreaker().getState());
+    assertEquals(2, pool.getTotal());
+    assertNotNull(pool.take());
+  }
+
+  private BasePool<Connection> create(final Config config) throws SQLException {
+    return new BasePool<Connection>(config, Defaults.create(config, conn)) {
+      @Override
+      protected Connection getConnection() {
+        return conn;
+      }
+
+      @Override
+      protected Connection getConnection(final Connection item) {
+        return item;
+      }
+
+      @Override
+      protected AutoCloseable getCloser(final Connection item) {
+        return closer;
+      }
+    };
+  }
+
+  private BasePool<Connection> affinityPool() throws SQLException {
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setCorePoolSize(2)
+            .setMaxPoolSize(4)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .setFreeListType(FreeListType.LOCK_FREE)
+            .setThreadAffinity(true)
+            .setRefillThreshold(0)
+            .getConfig();
+    return create(config);
   }
 
   @Test
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public class CircuitBreakerTest extends Assert {
+
+  HexaneListener listener;
+  ScheduledExecutorService scheduler;
+  Runnable retry;
+  CircuitBreaker breaker;
+
+  @Before
+  public void setUp() throws Exception {
+    FixedClock.setTime(0);
+    Clock.INSTANCE = new FixedClock();
+    listener = mock(HexaneListener.class);
+    scheduler = mock(ScheduledExecutorService.class);
+    retry = mock(Runnable.class);
+    breaker =
+        new CircuitBreaker(
+            Hexane.builder()
+                .setListener(listener)
+                .setHousekeepingExecutor(scheduler)
+                .setCircuitBreakerThreshold(2)
+                .setCircuitBreakerBackoff(100, TimeUnit.NANOSECONDS)
+                .setCircuitBreakerMaxBackoff(300, TimeUnit.NANOSECONDS)
+                .getConfig(),
+            retry);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Clock.INSTANCE = new Clock();
+  }
+
+  private void fail(final int times) {
+    for (int i = 0; i < times; ++i) {
+      assertTrue(breaker.tryAttempt());
+      breaker.onFailure();
+    }
+  }
+
+  @Test
+  public void opensAfterThreshold() throws Exception {
+    fail(1);
+    assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+    assertFalse(breaker.isOpen());
+    fail(1);
+    assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+    assertTrue(breaker.isOpen());
+    assertFalse(breaker.canAttempt());
+    assertFalse(breaker.tryAttempt());
+    verify(listener).onCircuitOpen(eq(2), anyLong(), eq(TimeUnit.NANOSECONDS));
+    verify(scheduler).schedule(eq(retry), anyLong(), eq(TimeUnit.NANOSECONDS));
+  }
+
+  @Test
+  public void successResetsFailures() throws Exception {
+    fail(1);
+    breaker.onSuccess();
+    fail(1);
+    assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+    verify(listener, never()).onCircuitClosed();
+  }
+
+  @Test
+  public void halfOpenProbe() throws Exception {
+    fail(2);
+    FixedClock.setTime(100);
+    assertFalse(breaker.isOpen());
+    assertTrue(breaker.canAttempt());
+    assertTrue(breaker.tryAttempt());
+    assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState());
+    verify(listener).onCircuitHalfOpen();
+
+    // Only one probe at a time
+    assertFalse(breaker.canAttempt());
+    assertFalse(breaker.tryAttempt());
+
+    breaker.onSuccess();
+    assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+    assertTrue(breaker.tryAttempt());
+    verify(listener).onCircuitClosed();
+  }
+
+  @Test
+  public void backoffGrowsWithJitter() throws Exception {
+    fail(2);
+    long time = 0;
+    for (final long backoff : new long[] {200, 300, 300}) {
+      time += 300;
+      FixedClock.setTime(time);
+      assertTrue(breaker.tryAttempt());
+      breaker.onFailure();
+      assertTrue(breaker.isOpen());
+      FixedClock.setTime(time + backoff / 2 - 1);
+      assertTrue(breaker.isOpen());
+      FixedClock.setTime(time + backoff);
+      assertFalse(breaker.isOpen());
+    }
+    verify(listener, times(4)).onCircuitOpen(any(Integer.class), anyLong(), any());
+  }
+}
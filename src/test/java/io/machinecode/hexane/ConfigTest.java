@@ -16,14 +16,19 @@
  */
 package io.machinecode.hexane;
 
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLNonTransientException;
+import java.sql.SQLTransientConnectionException;
 import java.util.Collections;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import javax.sql.ConnectionPoolDataSource;
 import javax.sql.DataSource;
@@ -45,12 +50,50 @@ public class ConfigTest extends Assert {
             .setConnectionTimeout(1, TimeUnit.MILLISECONDS)
             .setIdleTimeout(1, TimeUnit.MILLISECONDS)
             .setLifetimeTimeout(1, TimeUnit.MILLISECONDS)
+            .setLifetimeJitterPercent(10)
+            .setLifetimeJitter(1, TimeUnit.MILLISECONDS)
+            .setLifetimeReplaceWindow(1, TimeUnit.MILLISECONDS)
             .setValidationTimeout(1, TimeUnit.MILLISECONDS)
             .setMaxPoolSize(2)
             .setCorePoolSize(2)
             .setUser("foo")
             .setPassword("bar")
             .setMaintenanceExecutor(Runnable::run)
+            .setFreeListType(FreeListType.STRIPED)
+            .setFreeListStripes(2)
+            .setThreadAffinity(true)
+            .setCompletionExecutor(Runnable::run)
+            .setFairHandOff(true)
+            .setCreationConcurrency(2)
+            .setCreationExecutor(Runnable::run)
+            .setThreadFactory(Thread::new)
+            .setDriverThreads(2)
+            .setPrewarmTimeout(1, TimeUnit.SECONDS)
+            .setEvictionBatchSize(2)
+            .setAdaptiveSizingInterval(1, TimeUnit.SECONDS)
+            .setMaxWaiters(10)
+            .setPriorityClass(10, 1, 5)
+            .addPartition("web", Hexane.partition().setMaxPoolSize(2))
+            .setMaxEstimatedWait(1, TimeUnit.SECONDS)
+            .setKeyedMaxPoolSize(2)
+            .setKeyedCorePoolSize(1)
+            .setKeyedMaxTotalPoolSize(10)
+            .setKeyedIdleTimeout(1, TimeUnit.MINUTES)
+            .setRegistry(Hexane.registry().build())
+            .addBackend("a", mock(DataSource.class), 1)
+            .setHealthHalfLife(1, TimeUnit.SECONDS)
+            .setUnhealthyErrorPercent(50)
+            .setCircuitBreakerThreshold(5)
+            .setValidationIdleThreshold(1, TimeUnit.SECONDS)
+            .setKeepaliveInterval(1, TimeUnit.MINUTES)
+            .setKeepaliveBatchSize(4)
+            .setValidationQuery("SELECT 1")
+            .setLeakDetectionThreshold(30, TimeUnit.SECONDS)
+            .setLeakTraceSampleRate(1)
+            .setCircuitBreakerBackoff(100, TimeUnit.MILLISECONDS)
+            .setCircuitBreakerMaxBackoff(10, TimeUnit.SECONDS)
+            .setHousekeepingInterval(1, TimeUnit.SECONDS)
+            .setHousekeepingExecutor(Executors.newSingleThreadScheduledExecutor())
             .setAutoCommit(true)
             .setHoldability(HoldabilityType.CLOSE_CURSORS_AT_COMMIT)
             .setReadOnly(true)
@@ -102,6 +145,292 @@ public class ConfigTest extends Assert {
         Hexane.builder().setValidationTimeout(Integer.MAX_VALUE, TimeUnit.DAYS).getConfig();
   }
 
+  @Test(expected = NullPointerException.class)
+  public void setFreeListTypeRequiresType() {
+    final Config config = Hexane.builder().setFreeListType(null).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setFreeListStripesWrongNumber() {
+    final Config config = Hexane.builder().setFreeListStripes(0).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setCreationConcurrencyWrongNumber() {
+    final Config config = Hexane.builder().setCreationConcurrency(0).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setDriverThreadsWrongNumber() {
+    final Config config = Hexane.builder().setDriverThreads(-1).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setEvictionBatchSizeWrongNumber() {
+    final Config config = Hexane.builder().setEvictionBatchSize(0).getConfig();
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void setLifetimeJitterRequiresUnit() {
+    final Config config = Hexane.builder().setLifetimeJitter(1, null).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setLifetimeJitterWrongNumber() {
+    final Config config = Hexane.builder().setLifetimeJitter(-1, TimeUnit.SECONDS).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setLifetimeJitterPercentWrongNumber() {
+    final Config config = Hexane.builder().setLifetimeJitterPercent(101).getConfig();
+  }
+
+  @Test
+  public void lifetimeJitter() {
+    assertEquals(
+        0,
+        Hexane.builder()
+            .setLifetimeTimeout(100, TimeUnit.SECONDS)
+            .getConfig()
+            .getLifetimeJitter());
+    assertEquals(
+        TimeUnit.SECONDS.toNanos(10),
+        Hexane.builder()
+            .setLifetimeTimeout(100, TimeUnit.SECONDS)
+            .setLifetimeJitterPercent(10)
+            .getConfig()
+            .getLifetimeJitter());
+    assertEquals(
+        TimeUnit.SECONDS.toNanos(5),
+        Hexane.builder()
+            .setLifetimeTimeout(100, TimeUnit.SECONDS)
+            .setLifetimeJitter(5, TimeUnit.SECONDS)
+            .getConfig()
+            .getLifetimeJitter());
+    // Always shorter than the lifetime so no connection expires as it opens
+    assertEquals(
+        TimeUnit.SECONDS.toNanos(100) - 1,
+        Hexane.builder()
+            .setLifetimeTimeout(100, TimeUnit.SECONDS)
+            .setLifetimeJitter(5, TimeUnit.MINUTES)
+            .getConfig()
+            .getLifetimeJitter());
+    assertEquals(
+        TimeUnit.SECONDS.toNanos(100) - 1,
+        Hexane.builder()
+            .setLifetimeTimeout(100, TimeUnit.SECONDS)
+            .setLifetimeJitterPercent(100)
+            .getConfig()
+            .getLifetimeJitter());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void setLifetimeReplaceWindowRequiresUnit() {
+    final Config config = Hexane.builder().setLifetimeReplaceWindow(1, null).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setLifetimeReplaceWindowWrongNumber() {
+    final Config config =
+        Hexane.builder().setLifetimeReplaceWindow(-1, TimeUnit.SECONDS).getConfig();
+  }
+
+  @Test
+  public void lifetimeReplaceWindow() {
+    assertEquals(
+        Config.UNSET,
+        Hexane.builder()
+            .setLifetimeReplaceWindow(5, TimeUnit.SECONDS)
+            .getConfig()
+            .getLifetimeReplaceWindow());
+    assertEquals(
+        TimeUnit.SECONDS.toNanos(5),
+        Hexane.builder()
+            .setLifetimeTimeout(100, TimeUnit.SECONDS)
+            .setLifetimeReplaceWindow(5, TimeUnit.SECONDS)
+            .getConfig()
+            .getLifetimeReplaceWindow());
+    assertEquals(
+        TimeUnit.SECONDS.toNanos(40),
+        Hexane.builder()
+            .setLifetimeTimeout(100, TimeUnit.SECONDS)
+            .setLifetimeJitterPercent(20)
+            .setLifetimeReplaceWindow(90, TimeUnit.SECONDS)
+            .getConfig()
+            .getLifetimeReplaceWindow());
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void setAdaptiveSizingIntervalRequiresUnit() {
+    final Config config = Hexane.builder().setAdaptiveSizingInterval(1, null).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setAdaptiveSizingIntervalWrongNumber() {
+    final Config config =
+        Hexane.builder().setAdaptiveSizingInterval(0, TimeUnit.SECONDS).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setPriorityClassWrongReserved() {
+    final Config config = Hexane.builder().setPriorityClass(1, -1, 1).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setPriorityClassWrongMax() {
+    final Config config = Hexane.builder().setPriorityClass(1, 0, 0).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setPriorityClassReservedAboveMax() {
+    final Config config = Hexane.builder().setPriorityClass(1, 2, 1).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setMaxWaitersWrongNumber() {
+    final Config config = Hexane.builder().setMaxWaiters(-1).getConfig();
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void setMaxEstimatedWaitRequiresUnit() {
+    final Config config = Hexane.builder().setMaxEstimatedWait(1, null).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setMaxEstimatedWaitWrongNumber() {
+    final Config config = Hexane.builder().setMaxEstimatedWait(-1, TimeUnit.SECONDS).getConfig();
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void setKeepaliveIntervalRequiresUnit() {
+    final Config config = Hexane.builder().setKeepaliveInterval(1, null).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setKeepaliveIntervalWrongNumber() {
+    final Config config = Hexane.builder().setKeepaliveInterval(0, TimeUnit.SECONDS).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setKeepaliveBatchSizeWrongNumber() {
+    final Config config = Hexane.builder().setKeepaliveBatchSize(0).getConfig();
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void setLeakDetectionThresholdRequiresUnit() {
+    final Config config = Hexane.builder().setLeakDetectionThreshold(1, null).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setLeakDetectionThresholdWrongNumber() {
+    final Config config =
+        Hexane.builder().setLeakDetectionThreshold(0, TimeUnit.SECONDS).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setLeakTraceSampleRateWrongNumber() {
+    final Config config = Hexane.builder().setLeakTraceSampleRate(101).getConfig();
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void setValidationIdleThresholdRequiresUnit() {
+    final Config config = Hexane.builder().setValidationIdleThreshold(1, null).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setValidationIdleThresholdWrongNumber() {
+    final Config config =
+        Hexane.builder().setValidationIdleThreshold(-1, TimeUnit.SECONDS).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setCircuitBreakerThresholdWrongNumber() {
+    final Config config = Hexane.builder().setCircuitBreakerThreshold(0).getConfig();
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void setCircuitBreakerBackoffRequiresUnit() {
+    final Config config = Hexane.builder().setCircuitBreakerBackoff(1, null).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setCircuitBreakerBackoffWrongNumber() {
+    final Config config =
+        Hexane.builder().setCircuitBreakerBackoff(0, TimeUnit.SECONDS).getConfig();
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void setCircuitBreakerMaxBackoffRequiresUnit() {
+    final Config config = Hexane.builder().setCircuitBreakerMaxBackoff(1, null).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setCircuitBreakerMaxBackoffWrongNumber() {
+    final Config config =
+        Hexane.builder().setCircuitBreakerMaxBackoff(0, TimeUnit.SECONDS).getConfig();
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void setHealthHalfLifeRequiresUnit() {
+    final Config config = Hexane.builder().setHealthHalfLife(1, null).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setHealthHalfLifeWrongNumber() {
+    final Config config = Hexane.builder().setHealthHalfLife(0, TimeUnit.SECONDS).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setUnhealthyErrorPercentWrongNumber() {
+    final Config config = Hexane.builder().setUnhealthyErrorPercent(101).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setKeyedMaxPoolSizeWrongNumber() {
+    final Config config = Hexane.builder().setKeyedMaxPoolSize(0).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setKeyedCorePoolSizeWrongNumber() {
+    final Config config = Hexane.builder().setKeyedCorePoolSize(-1).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setKeyedMaxTotalPoolSizeWrongNumber() {
+    final Config config = Hexane.builder().setKeyedMaxTotalPoolSize(0).getConfig();
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void setKeyedIdleTimeoutRequiresUnit() {
+    final Config config = Hexane.builder().setKeyedIdleTimeout(1, null).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setKeyedIdleTimeoutWrongNumber() {
+    final Config config = Hexane.builder().setKeyedIdleTimeout(0, TimeUnit.SECONDS).getConfig();
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void setHousekeepingIntervalRequiresUnit() {
+    final Config config = Hexane.builder().setHousekeepingInterval(1, null).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setHousekeepingIntervalWrongNumber() {
+    final Config config =
+        Hexane.builder().setHousekeepingInterval(0, TimeUnit.SECONDS).getConfig();
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void setPrewarmTimeoutRequiresUnit() {
+    final Config config = Hexane.builder().setPrewarmTimeout(1, null).getConfig();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setPrewarmTimeoutWrongNumber() {
+    final Config config = Hexane.builder().setPrewarmTimeout(-1, TimeUnit.SECONDS).getConfig();
+  }
+
   @Test(expected = NullPointerException.class)
   public void setLifetimeTimeoutRequiresUnit() {
     final Config config = Hexane.builder().setLifetimeTimeout(1, null).getConfig();
@@ -143,6 +472,191 @@ public class ConfigTest extends Assert {
             .buildDataSource(dataSource);
   }
 
+  @Test(expected = SQLNonTransientException.class)
+  public void buildDataSourceThreadAffinityRequiresLockFree() throws SQLException {
+    Hexane.builder()
+        .setValidationTimeout(1, TimeUnit.SECONDS)
+        .setCorePoolSize(2)
+        .setMaxPoolSize(4)
+        .setThreadAffinity(true)
+        .buildDataSource(mock(DataSource.class));
+  }
+
+  @Test(expected = SQLNonTransientException.class)
+  public void buildDataSourceRequiresSeparateCreationExecutor() throws SQLException {
+    final DataSource dataSource = mock(DataSource.class);
+    when(dataSource.getConnection()).thenReturn(mock(Connection.class));
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final DataSource ret =
+          Hexane.builder()
+              .setValidationTimeout(1, TimeUnit.SECONDS)
+              .setCorePoolSize(2)
+              .setMaxPoolSize(4)
+              .setMaintenanceExecutor(executor)
+              .setCreationExecutor(executor)
+              .setCreationConcurrency(2)
+              .buildDataSource(dataSource);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = SQLNonTransientException.class)
+  public void buildDataSourceRequiresReservedWithinMaxPoolSize() throws SQLException {
+    final DataSource dataSource = mock(DataSource.class);
+    when(dataSource.getConnection()).thenReturn(mock(Connection.class));
+    final DataSource ret =
+        Hexane.builder()
+            .setValidationTimeout(1, TimeUnit.SECONDS)
+            .setCorePoolSize(2)
+            .setMaxPoolSize(4)
+            .setPriorityClass(10, 3, 4)
+            .setPriorityClass(5, 2, 4)
+            .buildDataSource(dataSource);
+  }
+
+  @Test
+  public void buildKeyedDataSource() throws SQLException {
+    final DataSource dataSource = mock(DataSource.class);
+    final Connection conn = mock(Connection.class);
+    when(conn.isValid(anyInt())).thenReturn(true);
+    when(dataSource.getConnection()).thenReturn(conn);
+    when(dataSource.getConnection("tenant", "secret")).thenReturn(conn);
+    final HexaneDataSource ret =
+        Hexane.builder()
+            .setValidationTimeout(1, TimeUnit.SECONDS)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(1)
+            .setMaintenanceExecutor(Runnable::run)
+            .setKeyedMaxPoolSize(1)
+            .buildDataSource(dataSource);
+    try (final Connection a = ret.getConnection("tenant", "secret")) {
+      assertNotNull(a);
+    }
+    try (final Connection a = ret.getConnection("tenant", "secret")) {
+      assertNotNull(a);
+    }
+    verify(dataSource).getConnection("tenant", "secret");
+    ret.close();
+  }
+
+  @Test
+  public void buildKeyedManagedDataSource() throws SQLException {
+    final DataSource dataSource = mock(DataSource.class);
+    final Connection conn = mock(Connection.class);
+    when(conn.isValid(anyInt())).thenReturn(true);
+    when(dataSource.getConnection()).thenReturn(conn);
+    when(dataSource.getConnection("tenant", "secret")).thenReturn(conn);
+    final HexaneManagedDataSource ret =
+        Hexane.builder()
+            .setValidationTimeout(1, TimeUnit.SECONDS)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(1)
+            .setMaintenanceExecutor(Runnable::run)
+            .setKeyedMaxPoolSize(1)
+            .buildManagedDataSource(dataSource);
+    final PooledConnection a = ret.getPooledConnection("tenant", "secret");
+    assertNotNull(a.getConnection());
+    a.close();
+    ret.getConnection("tenant", "secret").close();
+    verify(dataSource).getConnection("tenant", "secret");
+    ret.close();
+  }
+
+  @Test
+  public void buildPartitionedDataSource() throws SQLException {
+    final DataSource dataSource = mock(DataSource.class);
+    final Connection conn = mock(Connection.class);
+    when(conn.isValid(anyInt())).thenReturn(true);
+    when(dataSource.getConnection()).thenReturn(conn);
+    final HexaneListener jobsListener = mock(HexaneListener.class);
+    final HexanePartitionedDataSource ret =
+        Hexane.builder()
+            .setValidationTimeout(1, TimeUnit.SECONDS)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(4)
+            .setMaintenanceExecutor(Runnable::run)
+            .addPartition("web", Hexane.partition().setMaxPoolSize(3))
+            .addPartition(
+                "jobs",
+                Hexane.partition()
+                    .setCorePoolSize(0)
+                    .setMaxPoolSize(2)
+                    .setConnectionTimeout(5, TimeUnit.SECONDS)
+                    .setListener(jobsListener))
+            .buildPartitionedDataSource(dataSource);
+    assertEquals(2, ret.getPartitionNames().size());
+    assertNull(ret.getDataSource("admin"));
+
+    final HexanePool web = ret.getDataSource("web").pool;
+    final HexanePool jobs = ret.getDataSource("jobs").pool;
+    assertEquals(3, web.getConfig().getMaxPoolSize());
+    assertEquals(1, web.getConfig().getCorePoolSize());
+    assertEquals(2, jobs.getConfig().getMaxPoolSize());
+    assertEquals(0, jobs.getConfig().getCorePoolSize());
+    assertEquals(5, jobs.getConfig().getConnectionTimeout());
+    assertSame(web.getConfig().getBudget(), jobs.getConfig().getBudget());
+    assertSame(
+        web.getConfig().getHousekeepingExecutor(), jobs.getConfig().getHousekeepingExecutor());
+    assertEquals(4, web.getConfig().getBudget().getLimit());
+    verify(jobsListener).onDataSourceCreation();
+
+    ret.close();
+    assertTrue(web.isClosed());
+    assertTrue(jobs.isClosed());
+    assertTrue(((ExecutorService) web.getConfig().getHousekeepingExecutor()).isShutdown());
+  }
+
+  @Test(expected = SQLNonTransientException.class)
+  public void buildPartitionedDataSourceRequiresPartitions() throws SQLException {
+    final DataSource dataSource = mock(DataSource.class);
+    when(dataSource.getConnection()).thenReturn(mock(Connection.class));
+    Hexane.builder()
+        .setValidationTimeout(1, TimeUnit.SECONDS)
+        .setCorePoolSize(1)
+        .setMaxPoolSize(4)
+        .buildPartitionedDataSource(dataSource);
+  }
+
+  @Test(expected = SQLNonTransientException.class)
+  public void buildPartitionedDataSourceRequiresCoreWithinMaxPoolSize() throws SQLException {
+    final DataSource dataSource = mock(DataSource.class);
+    when(dataSource.getConnection()).thenReturn(mock(Connection.class));
+    Hexane.builder()
+        .setValidationTimeout(1, TimeUnit.SECONDS)
+        .setCorePoolSize(3)
+        .setMaxPoolSize(4)
+        .addPartition("web", Hexane.partition())
+        .addPartition("jobs", Hexane.partition())
+        .buildPartitionedDataSource(dataSource);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void partitionMaxPoolSizeWrongNumber() {
+    Hexane.partition().setMaxPoolSize(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void partitionCorePoolSizeWrongNumber() {
+    Hexane.partition().setCorePoolSize(-1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void partitionConnectionTimeoutWrongNumber() {
+    Hexane.partition().setConnectionTimeout(-1, TimeUnit.SECONDS);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void partitionConnectionTimeoutRequiresUnit() {
+    Hexane.partition().setConnectionTimeout(1, null);
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void partitionListenerRequired() {
+    Hexane.partition().setListener(null);
+  }
+
   @Test
   public void buildDataSource() throws SQLException {
     final DataSource dataSource = mock(DataSource.class);
@@ -155,6 +669,40 @@ public class ConfigTest extends Assert {
             .buildDataSource(dataSource);
   }
 
+  @Test
+  public void buildDataSourcePrewarm() throws SQLException {
+    final DataSource dataSource = mock(DataSource.class);
+    final Connection conn = mock(Connection.class);
+    when(conn.isValid(anyInt())).thenReturn(true);
+    when(dataSource.getConnection()).thenReturn(conn);
+    final HexaneDataSource ret =
+        Hexane.builder()
+            .setValidationTimeout(1, TimeUnit.SECONDS)
+            .setCorePoolSize(2)
+            .setMaxPoolSize(4)
+            .setMaintenanceExecutor(cmd -> {})
+            .setCreationConcurrency(2)
+            .setCreationExecutor(Runnable::run)
+            .setPrewarmTimeout(1, TimeUnit.SECONDS)
+            .buildDataSource(dataSource);
+    assertEquals(2, ret.pool.getTotal());
+    assertEquals(2, ret.pool.getFree());
+  }
+
+  @Test(expected = SQLTransientConnectionException.class)
+  public void buildDataSourcePrewarmTimeout() throws SQLException {
+    final DataSource dataSource = mock(DataSource.class);
+    when(dataSource.getConnection()).thenReturn(mock(Connection.class));
+    final DataSource ret =
+        Hexane.builder()
+            .setValidationTimeout(1, TimeUnit.SECONDS)
+            .setCorePoolSize(2)
+            .setMaxPoolSize(4)
+            .setMaintenanceExecutor(cmd -> {})
+            .setPrewarmTimeout(0, TimeUnit.SECONDS)
+            .buildDataSource(dataSource);
+  }
+
   @Test
   public void buildManagedDataSource() throws SQLException {
     final DataSource dataSource = mock(DataSource.class);
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public class ConnectionBudgetTest extends Assert {
+
+  @Test(expected = IllegalArgumentException.class)
+  public void wrongLimit() throws Exception {
+    new ConnectionBudget(0);
+  }
+
+  @Test
+  public void limit() throws Exception {
+    final ConnectionBudget budget = new ConnectionBudget(2);
+    final BasePool<?> pool = mock(BasePool.class);
+
+    assertTrue(budget.hasRoom(pool));
+    assertTrue(budget.tryAcquire(pool));
+    assertTrue(budget.tryAcquire(pool));
+    assertFalse(budget.hasRoom(pool));
+    assertFalse(budget.tryAcquire(pool));
+    assertEquals(2, budget.getUsed());
+
+    budget.release();
+    assertTrue(budget.tryAcquire(pool));
+  }
+
+  @Test
+  public void signalRefusedPools() throws Exception {
+    final ConnectionBudget budget = new ConnectionBudget(1);
+    final BasePool<?> holder = mock(BasePool.class);
+    final BasePool<?> starved = mock(BasePool.class);
+    budget.register(holder);
+    budget.register(starved);
+
+    assertTrue(budget.tryAcquire(holder));
+    assertFalse(budget.hasRoom(starved));
+    verify(starved, times(0)).signal();
+
+    // Woken as soon as the place is given up, and only once
+    budget.release();
+    verify(starved, times(1)).signal();
+    assertTrue(budget.tryAcquire(holder));
+    budget.release();
+    verify(starved, times(1)).signal();
+    verify(holder, times(0)).signal();
+  }
+
+  @Test
+  public void signalRefusedPoolsFromParent() throws Exception {
+    final ConnectionBudget parent = new ConnectionBudget(1);
+    final ConnectionBudget a = new ConnectionBudget(1, false, parent);
+    final ConnectionBudget b = new ConnectionBudget(1, false, parent);
+    final BasePool<?> holder = mock(BasePool.class);
+    final BasePool<?> starved = mock(BasePool.class);
+    a.register(holder);
+    b.register(starved);
+
+    assertTrue(a.tryAcquire(holder));
+    assertFalse(b.tryAcquire(starved));
+    a.release();
+    verify(starved, times(1)).signal();
+  }
+
+  @Test
+  public void reclaimFromOtherPools() throws Exception {
+    final ConnectionBudget budget = new ConnectionBudget(1);
+    final BasePool<?> requester = mock(BasePool.class);
+    final BasePool<?> busy = mock(BasePool.class);
+    final BasePool<?> idle = mock(BasePool.class);
+    budget.register(requester);
+    budget.register(busy);
+    budget.register(idle);
+    when(requester.shed()).thenThrow(new AssertionError());
+    when(busy.shed()).thenReturn(false);
+    when(idle.shed())
+        .then(
+            invocation -> {
+              budget.release();
+              return true;
+            });
+
+    assertTrue(budget.tryAcquire(requester));
+    assertTrue(budget.tryAcquire(requester));
+    assertEquals(1, budget.getUsed());
+
+    budget.unregister(idle);
+    assertFalse(budget.tryAcquire(requester));
+  }
+
+  @Test
+  public void fairReclaimsOnlyAboveShare() throws Exception {
+    final ConnectionBudget budget = new ConnectionBudget(4, true, null);
+    final BasePool<?> requester = mock(BasePool.class);
+    final BasePool<?> fair = mock(BasePool.class);
+    final BasePool<?> greedy = mock(BasePool.class);
+    budget.register(requester);
+    budget.register(fair);
+    budget.register(greedy);
+    when(fair.getTotal()).thenReturn(1);
+    when(fair.shed()).thenThrow(new AssertionError());
+    when(greedy.getTotal()).thenReturn(3);
+    when(greedy.shed())
+        .then(
+            invocation -> {
+              budget.release();
+              return true;
+            });
+    for (int i = 0; i < 4; ++i) {
+      assertTrue(budget.tryAcquire(greedy));
+    }
+
+    // The share is 1 and the requester has none
+    assertTrue(budget.tryAcquire(requester));
+    assertEquals(4, budget.getUsed());
+
+    // Once at its share it can't take any more
+    when(requester.getTotal()).thenReturn(1);
+    assertFalse(budget.tryAcquire(requester));
+    assertFalse(budget.hasRoom(requester));
+  }
+
+  @Test
+  public void parentLimitsChild() throws Exception {
+    final ConnectionBudget parent = new ConnectionBudget(2, false, null);
+    final ConnectionBudget a = new ConnectionBudget(2, false, parent);
+    final ConnectionBudget b = new ConnectionBudget(2, false, parent);
+    final BasePool<?> pool = mock(BasePool.class);
+    a.register(pool);
+
+    assertTrue(a.tryAcquire(pool));
+    assertTrue(b.tryAcquire(pool));
+    assertFalse(a.hasRoom(pool));
+    assertFalse(a.tryAcquire(pool));
+    assertEquals(1, a.getUsed());
+    assertEquals(2, parent.getUsed());
+
+    b.release();
+    assertEquals(1, parent.getUsed());
+    assertTrue(a.tryAcquire(pool));
+    assertEquals(2, a.getUsed());
+
+    a.unregister(pool);
+    a.release();
+    a.release();
+    assertEquals(0, parent.getUsed());
+  }
+}
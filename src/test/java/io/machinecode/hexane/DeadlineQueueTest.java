@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.sql.Connection;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public class DeadlineQueueTest extends Assert {
+
+  private DeadlineQueue<Connection> queue;
+
+  @Before
+  public void setUp() throws Exception {
+    queue = new DeadlineQueue<>();
+  }
+
+  @Test
+  public void pollEmpty() throws Exception {
+    assertNull(queue.poll(0));
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void pollInDeadlineOrder() throws Exception {
+    final Pooled<Connection> a = TestUtil.getPooled();
+    final Pooled<Connection> b = TestUtil.getPooled();
+    final Pooled<Connection> c = TestUtil.getPooled();
+    queue.add(a, 30);
+    queue.add(b, 10);
+    queue.add(c, 20);
+
+    assertNull(queue.poll(10));
+    assertSame(b, queue.poll(11));
+    assertNull(queue.poll(11));
+    assertSame(c, queue.poll(31));
+    assertSame(a, queue.poll(31));
+    assertNull(queue.poll(31));
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void pollAcrossOverflow() throws Exception {
+    final Pooled<Connection> a = TestUtil.getPooled();
+    final Pooled<Connection> b = TestUtil.getPooled();
+    queue.add(a, Long.MIN_VALUE + 10);
+    queue.add(b, Long.MAX_VALUE - 10);
+
+    assertSame(b, queue.poll(Long.MIN_VALUE));
+    assertNull(queue.poll(Long.MIN_VALUE));
+    assertSame(a, queue.poll(Long.MIN_VALUE + 11));
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientException;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public class HexaneBalancedDataSourceTest extends Assert {
+
+  Config.Builder builder;
+  HexaneBalancedDataSource dataSource;
+  HexanePool a;
+  HexanePool b;
+
+  @Before
+  public void setUp() throws Exception {
+    FixedClock.setTime(0);
+    Clock.INSTANCE = new FixedClock();
+    builder =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setValidationTimeout(1, TimeUnit.SECONDS)
+            .setConnectionTimeout(10, TimeUnit.MILLISECONDS)
+            .setHealthHalfLife(1, TimeUnit.HOURS)
+            .setCorePoolSize(0)
+            .setMaxPoolSize(4);
+    dataSource =
+        builder
+            .addBackend("a", dataSource(), 2)
+            .addBackend("b", dataSource(), 1)
+            .buildBalancedDataSource();
+    a = dataSource.getDataSource("a").pool;
+    b = dataSource.getDataSource("b").pool;
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dataSource.close();
+    Clock.INSTANCE = new Clock();
+  }
+
+  private static DataSource dataSource() throws SQLException {
+    final DataSource dataSource = mock(DataSource.class);
+    when(dataSource.getConnection())
+        .then(
+            invocation -> {
+              final Connection conn = mock(Connection.class);
+              when(conn.isValid(anyInt())).thenReturn(true);
+              return conn;
+            });
+    return dataSource;
+  }
+
+  private static int leased(final HexanePool pool) {
+    return pool.getTotal() - pool.getFree();
+  }
+
+  @Test
+  public void backends() throws Exception {
+    assertEquals(2, dataSource.getBackendNames().size());
+    assertNull(dataSource.getDataSource("c"));
+  }
+
+  @Test
+  public void unwrapDelegatesToBackend() throws Exception {
+    final Runnable delegate = mock(Runnable.class);
+    final DataSource ds = dataSource.getDataSource("a").dataSource;
+    when(ds.isWrapperFor(Runnable.class)).thenReturn(true);
+    when(ds.unwrap(Runnable.class)).thenReturn(delegate);
+    assertSame(dataSource, dataSource.unwrap(HexaneBalancedDataSource.class));
+    assertTrue(dataSource.isWrapperFor(Runnable.class));
+    assertSame(delegate, dataSource.unwrap(Runnable.class));
+  }
+
+  @Test(expected = SQLNonTransientException.class)
+  public void requiresBackends() throws Exception {
+    Hexane.builder()
+        .setValidationTimeout(1, TimeUnit.SECONDS)
+        .setCorePoolSize(0)
+        .setMaxPoolSize(4)
+        .buildBalancedDataSource();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void addBackendWrongWeight() throws Exception {
+    Hexane.builder().addBackend("a", mock(DataSource.class), 0);
+  }
+
+  @Test
+  public void weighted() throws Exception {
+    final Connection c1 = dataSource.getConnection();
+    final Connection c2 = dataSource.getConnection();
+    final Connection c3 = dataSource.getConnection();
+    assertEquals(2, leased(a));
+    assertEquals(1, leased(b));
+    c1.close();
+    c2.close();
+    c3.close();
+  }
+
+  @Test
+  public void errorsLowerScore() throws Exception {
+    for (int i = 0; i < 8; ++i) {
+      a.getHealth().onFailure();
+    }
+    // Not seen until the backends are next checked
+    try (final Connection conn = dataSource.getConnection()) {
+      assertNotNull(conn);
+      assertEquals(1, leased(a));
+    }
+    dataSource.check();
+    try (final Connection conn = dataSource.getConnection()) {
+      assertNotNull(conn);
+      assertEquals(1, leased(b));
+    }
+  }
+
+  @Test
+  public void drainUnhealthy() throws Exception {
+    final Connection b1 = dataSource.getDataSource("b").getConnection();
+    final Connection b2 = dataSource.getDataSource("b").getConnection();
+    b1.close();
+    b2.close();
+    final int total = b.getTotal();
+    assertTrue(total >= 2);
+    for (int i = 0; i < 16; ++i) {
+      b.getHealth().onFailure();
+    }
+
+    dataSource.check();
+    assertTrue(b.isDraining());
+    assertEquals(total - 1, b.getTotal());
+    final Connection c1 = dataSource.getConnection();
+    final Connection c2 = dataSource.getConnection();
+    final Connection c3 = dataSource.getConnection();
+    assertEquals(3, leased(a));
+    assertEquals(0, leased(b));
+    dataSource.check();
+    assertEquals(total - 2, b.getTotal());
+    c1.close();
+    c2.close();
+    c3.close();
+
+    // Once the errors have decayed it is used again
+    FixedClock.setTime(TimeUnit.HOURS.toNanos(10));
+    dataSource.check();
+    assertFalse(b.isDraining());
+  }
+
+  @Test
+  public void drainingUsedWhenNothingElse() throws Exception {
+    for (int i = 0; i < 16; ++i) {
+      a.getHealth().onFailure();
+      b.getHealth().onFailure();
+    }
+    dataSource.check();
+    assertTrue(a.isDraining());
+    assertTrue(b.isDraining());
+    try (final Connection conn = dataSource.getConnection()) {
+      assertNotNull(conn);
+    }
+  }
+
+  @Test(expected = SQLNonTransientException.class)
+  public void closed() throws Exception {
+    dataSource.close();
+    dataSource.getConnection();
+  }
+}
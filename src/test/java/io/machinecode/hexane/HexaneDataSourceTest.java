@@ -24,6 +24,8 @@ import static org.mockito.Mockito.when;
 import io.machinecode.hexane.Defaults.Builder;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import javax.sql.DataSource;
 import org.h2.jdbcx.JdbcDataSource;
 import org.junit.Before;
@@ -68,6 +70,41 @@ public class HexaneDataSourceTest
     assertEquals(delegate, dataSource.unwrap(JdbcDataSource.class));
   }
 
+  @Test
+  public void getConnectionAsync() throws Exception {
+    final Connection conn = dataSource.getConnectionAsync().get();
+
+    assertTrue(conn instanceof HexaneConnection);
+    conn.close();
+  }
+
+  @Test
+  public void getConnectionAsyncCancelled() throws Exception {
+    pool.close();
+    final Defaults defaults = new Builder().build();
+    pool =
+        new HexanePool(
+            Hexane.builder()
+                .setMaintenanceExecutor(Runnable::run)
+                .setCompletionExecutor(Runnable::run)
+                .setCorePoolSize(1)
+                .setMaxPoolSize(1)
+                .setConnectionTimeout(10, TimeUnit.SECONDS)
+                .getConfig(),
+            defaults,
+            delegate);
+    dataSource = new HexaneDataSource(pool, delegate, defaults);
+    final Connection first = dataSource.getConnection();
+    final CompletableFuture<Connection> waiting = dataSource.getConnectionAsync();
+    assertTrue(waiting.cancel(false));
+
+    // Given back rather than handed to the caller who gave up
+    first.close();
+    assertEquals(1, pool.getTotal());
+    assertEquals(1, pool.getFree());
+    dataSource.getConnection().close();
+  }
+
   @Test
   public void isWrapperForFatalCallsKill() throws SQLException {
     when(delegate.isWrapperFor(any())).thenThrow(TestUtil.getFatalState());
@@ -148,6 +148,23 @@ public class HexaneListenerTest extends Assert {
     assertEquals(2, pool.getFree());
   }
 
+  @Test
+  public void onConnectionCreationPrewarm() throws Exception {
+    FixedClock.setTime(0L);
+
+    final DataSource dataSource = mock(DataSource.class);
+    when(dataSource.getConnection()).thenReturn(conn);
+
+    builder
+        .setValidationTimeout(1, Clock.getUnit())
+        .setPrewarmTimeout(10, Clock.getUnit())
+        .setCreationConcurrency(2)
+        .setCreationExecutor(Runnable::run)
+        .buildDataSource(dataSource);
+
+    verify(listener, times(2)).onConnectionCreation(0L, Clock.getUnit());
+  }
+
   @Test
   public void onConnectionAcquired() throws Exception {
     FixedClock.setTime(0L);
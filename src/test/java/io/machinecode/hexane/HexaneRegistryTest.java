@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public class HexaneRegistryTest extends Assert {
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setMaxConnectionsWrongNumber() {
+    Hexane.registry().setMaxConnections(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setThreadsWrongNumber() {
+    Hexane.registry().setThreads(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setCreationThreadsWrongNumber() {
+    Hexane.registry().setCreationThreads(0);
+  }
+
+  @Test
+  public void noLimit() {
+    try (final HexaneRegistry registry = Hexane.registry().build()) {
+      assertEquals(-1, registry.getMaxConnections());
+      assertEquals(0, registry.getOpenConnections());
+      final Config config = Hexane.builder().setRegistry(registry).getConfig();
+      assertNull(config.getBudget());
+    }
+  }
+
+  @Test
+  public void sharedByPools() throws Exception {
+    final DataSource dataSource = mock(DataSource.class);
+    when(dataSource.getConnection())
+        .then(
+            invocation -> {
+              final Connection conn = mock(Connection.class);
+              when(conn.isValid(anyInt())).thenReturn(true);
+              return conn;
+            });
+    final HexaneRegistry registry = Hexane.registry().setMaxConnections(3).build();
+    final Config.Builder builder =
+        Hexane.builder()
+            .setRegistry(registry)
+            .setValidationTimeout(1, TimeUnit.SECONDS)
+            .setConnectionTimeout(100, TimeUnit.MILLISECONDS)
+            .setCorePoolSize(0)
+            .setMaxPoolSize(3);
+    final HexaneDataSource a = builder.buildDataSource(dataSource);
+    final HexaneDataSource b = builder.buildDataSource(dataSource);
+    assertSame(registry.getScheduler(), a.pool.getConfig().getHousekeepingExecutor());
+    assertSame(registry.getCreationExecutor(), b.pool.getConfig().getMaintenanceExecutor());
+    assertSame(registry.getBudget(), b.pool.getConfig().getBudget());
+
+    final Connection a1 = a.getConnection();
+    final Connection a2 = a.getConnection();
+    final Connection b1 = b.getConnection();
+    assertEquals(3, registry.getOpenConnections());
+    try {
+      b.getConnection();
+      fail();
+    } catch (final SQLTransientConnectionException e) {
+      // Expected
+    }
+
+    // Closing a pool gives its connections back
+    a1.close();
+    a2.close();
+    a.close();
+    // And b, which was refused one, is woken to open one in their place
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (b.pool.getFree() == 0 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(1, b.pool.getFree());
+    assertEquals(2, registry.getOpenConnections());
+    b1.close();
+    b.getConnection().close();
+    b.close();
+    assertFalse(registry.getScheduler().isShutdown());
+    registry.close();
+    assertTrue(registry.getScheduler().isShutdown());
+    assertTrue(((ExecutorService) registry.getCreationExecutor()).isShutdown());
+  }
+
+  @Test
+  public void creationOffScheduler() throws Exception {
+    final CountDownLatch entered = new CountDownLatch(1), stall = new CountDownLatch(1);
+    final DataSource stalled = mock(DataSource.class);
+    // Answers the probe made while building the data source, then stalls the pool
+    when(stalled.getConnection())
+        .thenReturn(mock(Connection.class))
+        .then(
+            invocation -> {
+              entered.countDown();
+              stall.await(10, TimeUnit.SECONDS);
+              throw new SQLTransientConnectionException();
+            });
+    final DataSource dataSource = mock(DataSource.class);
+    when(dataSource.getConnection())
+        .then(
+            invocation -> {
+              final Connection conn = mock(Connection.class);
+              when(conn.isValid(anyInt())).thenReturn(true);
+              return conn;
+            });
+    final HexaneRegistry registry = Hexane.registry().setCreationThreads(2).build();
+    final Config.Builder builder =
+        Hexane.builder()
+            .setRegistry(registry)
+            .setValidationTimeout(1, TimeUnit.SECONDS)
+            .setConnectionTimeout(1, TimeUnit.SECONDS)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(1);
+    final HexaneDataSource a = builder.buildDataSource(stalled);
+    try {
+      assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+      // a holds one creation thread, the scheduler and the other creation thread are still free
+      registry.getScheduler().submit(() -> null).get(1, TimeUnit.SECONDS);
+      final HexaneDataSource b = builder.buildDataSource(dataSource);
+      b.getConnection().close();
+      b.close();
+    } finally {
+      stall.countDown();
+      a.close();
+      registry.close();
+    }
+  }
+}
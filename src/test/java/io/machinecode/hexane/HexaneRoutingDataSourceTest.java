@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public class HexaneRoutingDataSourceTest extends Assert {
+
+  DataSource primary;
+  DataSource replicaA;
+  DataSource replicaB;
+  Connection primaryConn;
+  Connection replicaAConn;
+  Connection replicaBConn;
+  Config.Builder builder;
+  HexaneRoutingDataSource dataSource;
+
+  @Before
+  public void setUp() throws Exception {
+    primary = mock(DataSource.class);
+    replicaA = mock(DataSource.class);
+    replicaB = mock(DataSource.class);
+    primaryConn = connection(primary);
+    replicaAConn = connection(replicaA);
+    replicaBConn = connection(replicaB);
+    builder =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setValidationTimeout(1, TimeUnit.SECONDS)
+            .setConnectionTimeout(10, TimeUnit.MILLISECONDS)
+            .setCorePoolSize(0)
+            .setMaxPoolSize(2);
+    dataSource = builder.buildRoutingDataSource(primary, replicaA, replicaB);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dataSource.close();
+  }
+
+  private static Connection connection(final DataSource dataSource) throws SQLException {
+    final Connection conn = mock(Connection.class);
+    when(conn.isValid(anyInt())).thenReturn(true);
+    when(conn.createStatement()).thenReturn(mock(Statement.class));
+    when(dataSource.getConnection()).thenReturn(conn);
+    return conn;
+  }
+
+  private static Connection delegate(final Connection conn) {
+    return ((RoutingConnection) Proxy.getInvocationHandler(conn)).getDelegate();
+  }
+
+  private static int leased(final HexaneDataSource dataSource) {
+    return leased(dataSource.pool);
+  }
+
+  private static int leased(final HexanePool pool) {
+    return pool.getTotal() - pool.getFree();
+  }
+
+  @Test
+  public void writesGoToPrimary() throws Exception {
+    try (final Connection conn = dataSource.getConnection()) {
+      assertNull(delegate(conn));
+      conn.createStatement().close();
+      assertNotNull(delegate(conn));
+      assertEquals(1, leased(dataSource.getPrimary()));
+    }
+    assertEquals(0, leased(dataSource.getPrimary()));
+  }
+
+  @Test
+  public void readOnlyGoesToReplica() throws Exception {
+    try (final Connection conn = dataSource.getConnection()) {
+      conn.setReadOnly(true);
+      assertTrue(conn.isReadOnly());
+      conn.createStatement().close();
+      assertEquals(0, leased(dataSource.getPrimary()));
+    }
+    verify(primaryConn, never()).createStatement();
+  }
+
+  @Test
+  public void writableAfterReadOnlyGoesToPrimary() throws Exception {
+    try (final Connection conn = dataSource.getConnection()) {
+      when(replicaAConn.getAutoCommit()).thenReturn(true);
+      when(replicaBConn.getAutoCommit()).thenReturn(true);
+      conn.setReadOnly(true);
+      conn.createStatement().close();
+      assertEquals(0, leased(dataSource.getPrimary()));
+
+      conn.setReadOnly(false);
+      assertNull(delegate(conn));
+      assertFalse(conn.isReadOnly());
+      conn.createStatement().close();
+      assertEquals(1, leased(dataSource.getPrimary()));
+    }
+    assertEquals(0, leased(dataSource.getPrimary()));
+  }
+
+  @Test
+  public void writableAfterReadOnlyInTransaction() throws Exception {
+    try (final Connection conn = dataSource.getConnection()) {
+      conn.setReadOnly(true);
+      conn.createStatement().close();
+      final Connection replica = delegate(conn);
+      try {
+        conn.setReadOnly(false);
+        fail();
+      } catch (final SQLNonTransientException e) {
+        // Expected
+      }
+      assertSame(replica, delegate(conn));
+      assertEquals(0, leased(dataSource.getPrimary()));
+    }
+  }
+
+  @Test
+  public void leastOutstandingLeases() throws Exception {
+    final Connection a = dataSource.getReadOnlyConnection();
+    final Connection b = dataSource.getReadOnlyConnection();
+    final HexanePool first = dataSource.getReplicas().get(0).pool;
+    final HexanePool second = dataSource.getReplicas().get(1).pool;
+    assertEquals(1, leased(first));
+    assertEquals(1, leased(second));
+    a.close();
+
+    // The replica with nothing leased is used whichever one it is
+    final HexanePool free = leased(first) == 0 ? first : second;
+    final Connection c = dataSource.getReadOnlyConnection();
+    assertEquals(1, leased(free));
+    b.close();
+    c.close();
+  }
+
+  @Test
+  public void fallBackToPrimary() throws Exception {
+    final Connection[] leased = new Connection[4];
+    for (int i = 0; i < leased.length; ++i) {
+      leased[i] = dataSource.getReadOnlyConnection();
+    }
+    final Connection conn = dataSource.getReadOnlyConnection();
+    assertEquals(1, leased(dataSource.getPrimary()));
+    verify(primaryConn).setReadOnly(true);
+    conn.close();
+    for (final Connection it : leased) {
+      it.close();
+    }
+  }
+
+  @Test
+  public void noReplicas() throws Exception {
+    try (final HexaneRoutingDataSource routing = builder.buildRoutingDataSource(primary)) {
+      try (final Connection conn = routing.getReadOnlyConnection()) {
+        assertNotNull(conn);
+        assertEquals(1, leased(routing.getPrimary()));
+      }
+    }
+  }
+
+  @Test
+  public void closed() throws Exception {
+    final Connection conn = dataSource.getConnection();
+    conn.close();
+    assertTrue(conn.isClosed());
+    conn.close();
+    try {
+      conn.createStatement();
+      fail();
+    } catch (final SQLNonTransientException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void closeClosesEveryPool() throws Exception {
+    dataSource.close();
+    assertTrue(dataSource.getPrimary().pool.isClosed());
+    for (final HexaneDataSource it : dataSource.getReplicas()) {
+      assertTrue(it.pool.isClosed());
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLNonTransientException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public class KeyedPoolTest extends Assert {
+
+  DataSource dataSource;
+  Config.Builder builder;
+  Config shared;
+  Defaults defaults;
+
+  @Before
+  public void setUp() throws Exception {
+    FixedClock.setTime(0);
+    Clock.INSTANCE = new FixedClock();
+    dataSource = mock(DataSource.class);
+    when(dataSource.getConnection(anyString(), anyString()))
+        .then(
+            invocation -> {
+              final Connection conn = mock(Connection.class);
+              when(conn.isValid(anyInt())).thenReturn(true);
+              return conn;
+            });
+    builder =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setRefillThreshold(0)
+            .setConnectionTimeout(10, TimeUnit.MILLISECONDS)
+            .setKeyedMaxPoolSize(2)
+            .setKeyedIdleTimeout(1, TimeUnit.HOURS);
+    shared = builder.getConfig();
+    defaults = new Defaults.Builder().build();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Clock.INSTANCE = new Clock();
+  }
+
+  @Test
+  public void notKeyed() throws Exception {
+    assertNull(Hexane.builder().keyed(shared, defaults, dataSource));
+  }
+
+  @Test
+  public void poolPerKey() throws Exception {
+    try (final KeyedPool keyed = builder.keyed(shared, defaults, dataSource)) {
+      keyed.take("a", "x").close(false);
+      keyed.take("a", "x").close(false);
+      keyed.take("b", "x").close(false);
+      assertEquals(2, keyed.size());
+      assertNotSame(keyed.getPool("a", "x"), keyed.getPool("b", "x"));
+      assertNull(keyed.getPool("a", "y"));
+      assertEquals(1, keyed.getPool("a", "x").getTotal());
+      verify(dataSource, times(1)).getConnection("a", "x");
+      verify(dataSource, times(1)).getConnection("b", "x");
+    }
+  }
+
+  @Test
+  public void closedWhileOpening() throws Exception {
+    final Ref<KeyedPool> keyed = new Ref<>();
+    final HexaneListener listener = mock(HexaneListener.class);
+    when(dataSource.getConnection("a", "x"))
+        .then(
+            invocation -> {
+              keyed.getVal().close();
+              final Connection conn = mock(Connection.class);
+              when(conn.isValid(anyInt())).thenReturn(true);
+              return conn;
+            });
+    keyed.setVal(builder.setListener(listener).keyed(shared, defaults, dataSource));
+    try {
+      keyed.getVal().take("a", "x");
+      fail();
+    } catch (final SQLNonTransientException e) {
+      // Expected
+    }
+    // The pool it opened was closed rather than left behind
+    assertEquals(0, keyed.getVal().size());
+    verify(listener).onDataSourceClosed();
+  }
+
+  @Test
+  public void openingDoesNotBlockOtherKeys() throws Exception {
+    final CountDownLatch entered = new CountDownLatch(1), stall = new CountDownLatch(1);
+    when(dataSource.getConnection("Aa", "x"))
+        .then(
+            invocation -> {
+              entered.countDown();
+              stall.await(10, TimeUnit.SECONDS);
+              final Connection conn = mock(Connection.class);
+              when(conn.isValid(anyInt())).thenReturn(true);
+              return conn;
+            });
+    // Opens its connections while the pool starts
+    builder.setKeyedCorePoolSize(1);
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    try (final KeyedPool keyed = builder.keyed(shared, defaults, dataSource)) {
+      executor.submit(() -> keyed.take("Aa", "x"));
+      assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+      // The same hash code so the same bin in the map
+      assertEquals("Aa".hashCode(), "BB".hashCode());
+      final Future<Pooled<Connection>> other = executor.submit(() -> keyed.take("BB", "x"));
+      assertNotNull(other.get(1, TimeUnit.SECONDS));
+      stall.countDown();
+    } finally {
+      stall.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void maxPoolSizePerKey() throws Exception {
+    try (final KeyedPool keyed = builder.keyed(shared, defaults, dataSource)) {
+      keyed.take("a", "x");
+      keyed.take("a", "x");
+      try {
+        keyed.take("a", "x");
+        fail();
+      } catch (final SQLTransientConnectionException e) {
+        // Expected
+      }
+      assertNotNull(keyed.take("b", "x"));
+    }
+  }
+
+  @Test
+  public void maxTotalPoolSize() throws Exception {
+    builder.setKeyedMaxTotalPoolSize(2);
+    try (final KeyedPool keyed = builder.keyed(shared, defaults, dataSource)) {
+      final Pooled<Connection> a1 = keyed.take("a", "x");
+      keyed.take("b", "x");
+      try {
+        keyed.take("c", "x");
+        fail();
+      } catch (final SQLTransientConnectionException e) {
+        // Expected
+      }
+
+      // An idle connection in another sub-pool is given up
+      a1.close(false);
+      assertNotNull(keyed.take("c", "x"));
+      assertEquals(0, keyed.getPool("a", "x").getTotal());
+      assertEquals(2, keyed.getConfig().getBudget().getUsed());
+    }
+  }
+
+  @Test
+  public void sweepIdlePools() throws Exception {
+    try (final KeyedPool keyed = builder.keyed(shared, defaults, dataSource)) {
+      final Pooled<Connection> a = keyed.take("a", "x");
+      keyed.take("b", "x").close(false);
+      final HexanePool pool = keyed.getPool("b", "x");
+
+      FixedClock.setTime(TimeUnit.HOURS.toNanos(1));
+      keyed.sweep();
+      assertEquals(1, keyed.size());
+      assertNull(keyed.getPool("b", "x"));
+      assertTrue(pool.isClosed());
+
+      // Leased connections keep the pool open
+      assertNotNull(keyed.getPool("a", "x"));
+      a.close(false);
+      keyed.sweep();
+      assertEquals(0, keyed.size());
+
+      // A new one is opened on demand
+      assertNotNull(keyed.take("b", "x"));
+      assertNotSame(pool, keyed.getPool("b", "x"));
+    }
+  }
+
+  @Test
+  public void takeAfterClose() throws Exception {
+    final KeyedPool keyed = builder.keyed(shared, defaults, dataSource);
+    keyed.take("a", "x").close(false);
+    final HexanePool pool = keyed.getPool("a", "x");
+    keyed.close();
+    assertTrue(pool.isClosed());
+    assertEquals(0, keyed.size());
+    try {
+      keyed.take("a", "x");
+      fail();
+    } catch (final SQLNonTransientException e) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.sql.Connection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public class LockFreeFreeListTest extends Assert {
+
+  private LockFreeFreeList<Connection> free;
+
+  @Before
+  public void setUp() throws Exception {
+    free = new LockFreeFreeList<>();
+  }
+
+  @Test
+  public void pollEmpty() throws Exception {
+    assertNull(free.poll());
+    assertNull(free.poll(1, TimeUnit.MILLISECONDS));
+    assertEquals(0, free.size());
+  }
+
+  @Test
+  public void addAndPoll() throws Exception {
+    final Pooled<Connection> a = TestUtil.getPooled();
+    final Pooled<Connection> b = TestUtil.getPooled();
+    free.add(a);
+    free.add(b);
+
+    assertEquals(2, free.size());
+    assertSame(a, free.poll());
+    assertEquals(1, free.size());
+    assertSame(b, free.poll());
+    assertEquals(0, free.size());
+    assertNull(free.poll());
+
+    free.offer(b);
+
+    assertEquals(1, free.size());
+    assertSame(b, free.poll());
+  }
+
+  @Test
+  public void offerIgnoresFree() throws Exception {
+    final Pooled<Connection> a = TestUtil.getPooled();
+    free.add(a);
+    free.offer(a);
+
+    assertEquals(1, free.size());
+    assertSame(a, free.poll());
+    assertNull(free.poll());
+  }
+
+  @Test
+  public void remove() throws Exception {
+    final Pooled<Connection> a = TestUtil.getPooled();
+    final Pooled<Connection> b = TestUtil.getPooled();
+    free.add(a);
+    free.add(b);
+
+    assertTrue(free.remove(a));
+    assertFalse(free.remove(a));
+    assertEquals(1, free.size());
+
+    assertSame(b, free.poll());
+    assertFalse(free.remove(b));
+    assertEquals(0, free.size());
+
+    // Returning a removed item must not resurrect it
+    free.offer(b);
+    assertEquals(0, free.size());
+    assertNull(free.poll());
+  }
+
+  @Test
+  public void waiterIsWoken() throws Exception {
+    final Pooled<Connection> a = TestUtil.getPooled();
+    free.add(a);
+    assertSame(a, free.poll());
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final Ref<Pooled<Connection>> ret = new Ref<>();
+    final Thread waiter =
+        new Thread(
+            () -> {
+              started.countDown();
+              try {
+                ret.setVal(free.poll(10, TimeUnit.SECONDS));
+              } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    waiter.start();
+    started.await();
+    Thread.sleep(50);
+    free.offer(a);
+    waiter.join(TimeUnit.SECONDS.toMillis(5));
+
+    assertFalse(waiter.isAlive());
+    assertSame(a, ret.getVal());
+  }
+
+  private Thread waiter(
+      final LockFreeFreeList<Connection> free, final Ref<Pooled<Connection>> ret)
+      throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final Thread waiter =
+        new Thread(
+            () -> {
+              started.countDown();
+              try {
+                ret.setVal(free.poll(10, TimeUnit.SECONDS));
+              } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    waiter.start();
+    started.await();
+    // Parked in the queue of waiters
+    while (waiter.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+    return waiter;
+  }
+
+  @Test
+  public void fairHandOff() throws Exception {
+    final LockFreeFreeList<Connection> free = new LockFreeFreeList<>(true);
+    final Pooled<Connection> a = TestUtil.getPooled();
+    free.add(a);
+    assertSame(a, free.poll());
+
+    final Ref<Pooled<Connection>> ret = new Ref<>();
+    final Thread waiter = waiter(free, ret);
+    assertTrue(free.offer(a));
+
+    // Handed straight to the waiter so there is nothing for a new arrival to take
+    assertNull(free.poll());
+    assertEquals(0, free.size());
+    waiter.join(TimeUnit.SECONDS.toMillis(5));
+
+    assertFalse(waiter.isAlive());
+    assertSame(a, ret.getVal());
+    assertEquals(Pooled.STATE_TAKEN, a.getState());
+  }
+
+  @Test
+  public void fairHandOffInArrivalOrder() throws Exception {
+    final LockFreeFreeList<Connection> free = new LockFreeFreeList<>(true);
+    final Pooled<Connection> a = TestUtil.getPooled();
+    final Pooled<Connection> b = TestUtil.getPooled();
+
+    final Ref<Pooled<Connection>> first = new Ref<>();
+    final Ref<Pooled<Connection>> second = new Ref<>();
+    final Thread one = waiter(free, first);
+    final Thread two = waiter(free, second);
+    free.add(a);
+    one.join(TimeUnit.SECONDS.toMillis(5));
+
+    assertFalse(one.isAlive());
+    assertTrue(two.isAlive());
+    assertSame(a, first.getVal());
+
+    free.add(b);
+    two.join(TimeUnit.SECONDS.toMillis(5));
+
+    assertFalse(two.isAlive());
+    assertSame(b, second.getVal());
+  }
+
+  @Test
+  public void fairTimeout() throws Exception {
+    final LockFreeFreeList<Connection> free = new LockFreeFreeList<>(true);
+    assertNull(free.poll(1, TimeUnit.MILLISECONDS));
+
+    // Nobody is waiting any more so the item is freed
+    final Pooled<Connection> a = TestUtil.getPooled();
+    free.add(a);
+    assertEquals(1, free.size());
+    assertSame(a, free.poll());
+  }
+
+  @Test(expected = InterruptedException.class)
+  public void pollInterrupted() throws Exception {
+    Thread.currentThread().interrupt();
+    free.poll(10, TimeUnit.SECONDS);
+  }
+}
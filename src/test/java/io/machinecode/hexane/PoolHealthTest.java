@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public class PoolHealthTest extends Assert {
+
+  @Before
+  public void setUp() throws Exception {
+    FixedClock.setTime(0);
+    Clock.INSTANCE = new FixedClock();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Clock.INSTANCE = new Clock();
+  }
+
+  @Test
+  public void latency() throws Exception {
+    final PoolHealth health = new PoolHealth(100);
+    health.onSuccess(80, 16);
+    assertEquals(80, health.getCreationLatency());
+    assertEquals(16, health.getValidationLatency());
+    health.onSuccess(160, 24);
+    assertEquals(90, health.getCreationLatency());
+    assertEquals(17, health.getValidationLatency());
+  }
+
+  @Test
+  public void validation() throws Exception {
+    final PoolHealth health = new PoolHealth(100);
+    health.onFailure();
+    health.onValidation(16);
+    health.onValidation(24);
+    assertEquals(0, health.getCreationLatency());
+    assertEquals(17, health.getValidationLatency());
+    assertEquals(0.095703125, health.getErrorRate(), 0.0001);
+  }
+
+  @Test
+  public void errorRate() throws Exception {
+    final PoolHealth health = new PoolHealth(100);
+    assertEquals(0, health.getErrorRate(), 0);
+    health.onFailure();
+    assertEquals(0.125, health.getErrorRate(), 0.0001);
+    health.onSuccess(1, 1);
+    assertEquals(0.109375, health.getErrorRate(), 0.0001);
+  }
+
+  @Test
+  public void errorRateDecays() throws Exception {
+    final PoolHealth health = new PoolHealth(100);
+    for (int i = 0; i < 64; ++i) {
+      health.onFailure();
+    }
+    assertEquals(1, health.getErrorRate(), 0.01);
+    FixedClock.setTime(100);
+    assertEquals(0.5, health.getErrorRate(), 0.01);
+    FixedClock.setTime(300);
+    assertEquals(0.125, health.getErrorRate(), 0.01);
+  }
+}
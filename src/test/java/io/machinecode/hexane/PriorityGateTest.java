@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.util.concurrent.CompletableFuture;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public class PriorityGateTest extends Assert {
+
+  private static PriorityGate gate(final Config.Builder builder) {
+    return new PriorityGate(
+        builder
+            .setMaintenanceExecutor(Runnable::run)
+            .setCorePoolSize(1)
+            .setMaxPoolSize(4)
+            .getConfig());
+  }
+
+  @Test
+  public void defaultClassAlwaysExists() throws Exception {
+    final PriorityGate gate = gate(Hexane.builder().setPriorityClass(10, 0, 4));
+
+    assertNotNull(gate.lane(PriorityGate.DEFAULT));
+    assertNotNull(gate.lane(10));
+    assertNull(gate.lane(5));
+  }
+
+  @Test
+  public void maxIsCapped() throws Exception {
+    final PriorityGate gate = gate(Hexane.builder().setPriorityClass(-1, 0, 2));
+    final PriorityGate.Lane batch = gate.lane(-1);
+
+    assertTrue(gate.enter(batch).isDone());
+    assertTrue(gate.enter(batch).isDone());
+    final CompletableFuture<Void> third = gate.enter(batch);
+    assertFalse(third.isDone());
+
+    // The default class can still use the rest of the pool
+    final PriorityGate.Lane web = gate.lane(PriorityGate.DEFAULT);
+    assertTrue(gate.enter(web).isDone());
+    assertTrue(gate.enter(web).isDone());
+
+    gate.release(batch);
+    assertTrue(third.isDone());
+    assertEquals(2, gate.getLeased(batch));
+  }
+
+  @Test
+  public void reservedIsKeptFree() throws Exception {
+    final PriorityGate gate = gate(Hexane.builder().setPriorityClass(10, 1, 4));
+    final PriorityGate.Lane web = gate.lane(10);
+    final PriorityGate.Lane batch = gate.lane(PriorityGate.DEFAULT);
+
+    assertTrue(gate.enter(batch).isDone());
+    assertTrue(gate.enter(batch).isDone());
+    assertTrue(gate.enter(batch).isDone());
+    assertFalse(gate.enter(batch).isDone());
+
+    assertTrue(gate.enter(web).isDone());
+  }
+
+  @Test
+  public void higherPriorityServedFirst() throws Exception {
+    final PriorityGate gate = gate(Hexane.builder().setPriorityClass(10, 0, 4));
+    final PriorityGate.Lane web = gate.lane(10);
+    final PriorityGate.Lane batch = gate.lane(PriorityGate.DEFAULT);
+
+    for (int i = 0; i < 4; ++i) {
+      assertTrue(gate.enter(batch).isDone());
+    }
+    final CompletableFuture<Void> low = gate.enter(batch);
+    final CompletableFuture<Void> high = gate.enter(web);
+
+    gate.release(batch);
+    assertTrue(high.isDone());
+    assertFalse(low.isDone());
+
+    gate.release(batch);
+    assertTrue(low.isDone());
+  }
+
+  @Test
+  public void waitingHigherPriorityBlocksNewArrivals() throws Exception {
+    final PriorityGate gate = gate(Hexane.builder().setPriorityClass(10, 0, 4));
+    final PriorityGate.Lane web = gate.lane(10);
+    final PriorityGate.Lane batch = gate.lane(PriorityGate.DEFAULT);
+
+    for (int i = 0; i < 4; ++i) {
+      assertTrue(gate.enter(web).isDone());
+    }
+    final CompletableFuture<Void> high = gate.enter(web);
+    assertFalse(high.isDone());
+    assertFalse(gate.enter(batch).isDone());
+
+    assertTrue(gate.cancel(web, high));
+    assertFalse(gate.cancel(web, high));
+  }
+
+  @Test
+  public void cancelAfterGranted() throws Exception {
+    final PriorityGate gate = gate(Hexane.builder().setPriorityClass(10, 0, 1));
+    final PriorityGate.Lane web = gate.lane(10);
+
+    assertTrue(gate.enter(web).isDone());
+    final CompletableFuture<Void> second = gate.enter(web);
+    gate.release(web);
+
+    assertTrue(second.isDone());
+    assertFalse(gate.cancel(web, second));
+    assertEquals(1, gate.getLeased(web));
+  }
+
+  @Test
+  public void close() throws Exception {
+    final PriorityGate gate = gate(Hexane.builder().setPriorityClass(10, 0, 1));
+    final PriorityGate.Lane web = gate.lane(10);
+
+    assertTrue(gate.enter(web).isDone());
+    final CompletableFuture<Void> second = gate.enter(web);
+    gate.close();
+
+    assertTrue(second.isCompletedExceptionally());
+  }
+}
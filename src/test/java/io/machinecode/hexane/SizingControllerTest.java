@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public class SizingControllerTest extends Assert {
+
+  private HexaneListener listener;
+  private SizingController sizing;
+
+  @Before
+  public void setUp() throws Exception {
+    FixedClock.setTime(0);
+    Clock.INSTANCE = new FixedClock();
+    listener = mock(HexaneListener.class);
+    final Config config =
+        Hexane.builder()
+            .setMaintenanceExecutor(Runnable::run)
+            .setCorePoolSize(2)
+            .setMaxPoolSize(20)
+            .setAdaptiveSizingInterval(100, Clock.getUnit())
+            .setListener(listener)
+            .getConfig();
+    sizing = new SizingController(config, 0);
+  }
+
+  private void lease(final int count, final long duration) {
+    for (int i = 0; i < count; ++i) {
+      sizing.onConnectionAcquired(0, 0);
+      sizing.onConnectionReturned(0, duration);
+    }
+  }
+
+  @Test
+  public void waitsForInterval() throws Exception {
+    lease(10, 100);
+
+    assertEquals(2, sizing.evaluate(99));
+    verifyNoInteractions(listener);
+  }
+
+  @Test
+  public void growsTowardsDemand() throws Exception {
+    // 10 connections busy for the whole interval, 12 with headroom
+    lease(10, 100);
+
+    assertEquals(7, sizing.evaluate(100));
+    verify(listener).onPoolTargetSizeChange(2, 7);
+
+    lease(10, 100);
+
+    assertEquals(10, sizing.evaluate(200));
+    verify(listener).onPoolTargetSizeChange(7, 10);
+  }
+
+  @Test
+  public void neverAboveMax() throws Exception {
+    for (int i = 1; i <= 10; ++i) {
+      lease(100, 100);
+      assertTrue(sizing.evaluate(i * 100) <= 20);
+    }
+
+    assertEquals(20, sizing.getTarget());
+  }
+
+  @Test
+  public void growsOnTimeout() throws Exception {
+    sizing.onConnectionTimeout(99, 100);
+
+    assertEquals(3, sizing.evaluate(100));
+    verify(listener).onPoolTargetSizeChange(2, 3);
+  }
+
+  @Test
+  public void shrinksWithHysteresis() throws Exception {
+    lease(10, 100);
+    sizing.evaluate(100);
+    lease(10, 100);
+    sizing.evaluate(200);
+
+    assertEquals(10, sizing.getTarget());
+
+    // 8 with headroom is inside the band
+    lease(6, 100);
+    sizing.evaluate(300);
+
+    assertEquals(10, sizing.getTarget());
+
+    // 5 with headroom is not
+    lease(4, 100);
+    sizing.evaluate(400);
+
+    assertEquals(9, sizing.getTarget());
+    verify(listener).onPoolTargetSizeChange(10, 9);
+  }
+
+  @Test
+  public void neverBelowCore() throws Exception {
+    sizing.evaluate(100);
+    sizing.evaluate(200);
+
+    assertEquals(2, sizing.getTarget());
+    verifyNoInteractions(listener);
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane;
+
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+public class StripedFreeListTest extends Assert {
+
+  private StripedFreeList<Connection> free;
+
+  @Before
+  public void setUp() throws Exception {
+    free = new StripedFreeList<>(4);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void requiresStripe() throws Exception {
+    new StripedFreeList<Connection>(0);
+  }
+
+  @Test
+  public void pollEmpty() throws Exception {
+    assertNull(free.poll());
+    assertNull(free.poll(1, TimeUnit.MILLISECONDS));
+    assertEquals(0, free.size());
+  }
+
+  @Test
+  public void stealsFromOtherStripes() throws Exception {
+    final Pooled<Connection> a = TestUtil.getPooled();
+    free.add(a);
+
+    // Only one stripe has an item so most threads will have to steal it
+    assertEquals(1, free.size());
+    assertSame(a, free.poll());
+    assertNull(free.poll());
+
+    free.offer(a);
+    assertSame(a, free.poll());
+  }
+
+  @Test
+  public void prefersHomeStripe() throws Exception {
+    final Pooled<Connection> a = TestUtil.getPooled();
+    final Pooled<Connection> b = TestUtil.getPooled();
+    final Pooled<Connection> c = TestUtil.getPooled();
+    final Pooled<Connection> d = TestUtil.getPooled();
+    free.add(a);
+    free.add(b);
+    free.add(c);
+    free.add(d);
+
+    // Items are spread one per stripe in order
+    final Pooled<?>[] expected = {a, b, c, d};
+    assertSame(expected[StripedFreeList.home(free.getStripes())], free.poll());
+    assertEquals(3, free.size());
+  }
+
+  @Test
+  public void remove() throws Exception {
+    final Pooled<Connection> a = TestUtil.getPooled();
+    final Pooled<Connection> b = TestUtil.getPooled();
+    free.add(a);
+    free.add(b);
+
+    assertTrue(free.remove(a));
+    assertFalse(free.remove(a));
+    assertEquals(1, free.size());
+
+    assertSame(b, free.poll());
+    assertFalse(free.remove(b));
+    assertEquals(0, free.size());
+
+    free.offer(b);
+    assertEquals(0, free.size());
+    assertNull(free.poll());
+  }
+
+  @Test
+  public void claim() throws Exception {
+    final Pooled<Connection> a = TestUtil.getPooled();
+    free.add(a);
+
+    assertTrue(free.claim(a));
+    assertFalse(free.claim(a));
+    assertEquals(0, free.size());
+  }
+}
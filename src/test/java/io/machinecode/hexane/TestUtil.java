@@ -16,6 +16,9 @@
  */
 package io.machinecode.hexane;
 
+import static org.mockito.Mockito.mock;
+
+import java.sql.Connection;
 import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
@@ -54,4 +57,10 @@ class TestUtil {
   static SQLNonTransientConnectionException getFatalNoConnection() {
     return new SQLNonTransientConnectionException("", Util.CONNECTION_ERROR + "000");
   }
+
+  /** @return A connection that belongs to no pool, for testing the free lists and queues. */
+  static Pooled<Connection> getPooled() {
+    final Connection conn = mock(Connection.class);
+    return new Pooled<>(null, conn, conn, conn, StatementCache.INSTANCE);
+  }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane.bench;
+
+import io.machinecode.hexane.FreeListType;
+import io.machinecode.hexane.Hexane;
+import io.machinecode.hexane.HexaneDataSource;
+import io.machinecode.hexane.TestBase;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of borrowing and returning a connection without doing any work on it.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+@BenchmarkMode({Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FreeListBench {
+
+  @Param({"h2"})
+  String name;
+
+  @Param({"DEQUE", "LOCK_FREE", "STRIPED"})
+  FreeListType freeListType;
+
+  @Param({"20"})
+  int maxPoolSize;
+
+  HexaneDataSource db;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    final TestBase.Setup setup = TestBase.loadSetup(name, System.getProperties());
+    db =
+        Hexane.builder()
+            .setUser(setup.user)
+            .setPassword(setup.password)
+            .setConnectionTimeout(10, TimeUnit.SECONDS)
+            .setValidationTimeout(1, TimeUnit.SECONDS)
+            .setMaxPoolSize(maxPoolSize)
+            .setCorePoolSize(maxPoolSize)
+            .setFreeListType(freeListType)
+            .buildDataSource(setup.getDataSource());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    db.close();
+  }
+
+  private boolean borrow() throws SQLException {
+    try (final Connection conn = db.getConnection()) {
+      return conn != null;
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean threads1() throws SQLException {
+    return borrow();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public boolean threads8() throws SQLException {
+    return borrow();
+  }
+
+  @Benchmark
+  @Threads(64)
+  public boolean threads64() throws SQLException {
+    return borrow();
+  }
+
+  @Benchmark
+  @Threads(256)
+  public boolean threads256() throws SQLException {
+    return borrow();
+  }
+}
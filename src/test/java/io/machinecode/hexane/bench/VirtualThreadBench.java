@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2018 Brent Douglas and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.machinecode.hexane.bench;
+
+import io.machinecode.hexane.Config;
+import io.machinecode.hexane.Hexane;
+import io.machinecode.hexane.HexaneDataSource;
+import io.machinecode.hexane.TestBase;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs a burst of concurrent clients that each borrow a connection and run a statement on it. The
+ * clients either get a virtual thread each, with the pool's own threads virtual and connection
+ * creation offloaded to platform threads, or are queued onto a fixed pool of platform threads.
+ *
+ * <p>Virtual threads are looked up reflectively and need a Java 21 runtime. On anything older the
+ * virtual trial fails in setup, run with {@code -p threads=PLATFORM} to skip it.
+ *
+ * @author <a href="mailto:brent.n.douglas@gmail.com">Brent Douglas</a>
+ */
+@BenchmarkMode({Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualThreadBench {
+
+  @Param({"h2"})
+  String name;
+
+  @Param({"PLATFORM", "VIRTUAL"})
+  String threads;
+
+  @Param({"10000"})
+  int clients;
+
+  @Param({"200"})
+  int platformThreads;
+
+  @Param({"20"})
+  int maxPoolSize;
+
+  HexaneDataSource db;
+  ExecutorService executor;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    final TestBase.Setup setup = TestBase.loadSetup(name, System.getProperties());
+    final Config.Builder builder =
+        Hexane.builder()
+            .setUser(setup.user)
+            .setPassword(setup.password)
+            .setConnectionTimeout(30, TimeUnit.SECONDS)
+            .setValidationTimeout(1, TimeUnit.SECONDS)
+            .setMaxPoolSize(maxPoolSize)
+            .setCorePoolSize(maxPoolSize);
+    if ("VIRTUAL".equals(threads)) {
+      builder.setThreadFactory(virtualThreadFactory()).setDriverThreads(4);
+      executor = virtualThreadExecutor();
+    } else {
+      executor = Executors.newFixedThreadPool(platformThreads);
+    }
+    db = builder.buildDataSource(setup.getDataSource());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    executor.shutdown();
+    db.close();
+  }
+
+  private int selectOne() throws SQLException {
+    try (final Connection conn = db.getConnection();
+        final PreparedStatement statement = conn.prepareStatement("SELECT 1");
+        final ResultSet result = statement.executeQuery()) {
+      return result.next() ? result.getInt(1) : 0;
+    }
+  }
+
+  @Benchmark
+  public int burst() throws Exception {
+    final List<Future<Integer>> results = new ArrayList<>(clients);
+    for (int i = 0; i < clients; ++i) {
+      results.add(executor.submit(this::selectOne));
+    }
+    int ret = 0;
+    for (final Future<Integer> result : results) {
+      ret += result.get();
+    }
+    return ret;
+  }
+
+  private static ThreadFactory virtualThreadFactory() throws Exception {
+    final Object builder;
+    try {
+      builder = Thread.class.getMethod("ofVirtual").invoke(null);
+    } catch (final NoSuchMethodException e) {
+      throw new UnsupportedOperationException(
+          "Virtual threads need Java 21, run with -p threads=PLATFORM", e);
+    }
+    return (ThreadFactory)
+        Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+  }
+
+  private static ExecutorService virtualThreadExecutor() throws Exception {
+    return (ExecutorService)
+        Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+  }
+}